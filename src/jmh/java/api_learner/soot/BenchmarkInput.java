@@ -0,0 +1,184 @@
+package api_learner.soot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+
+import soot.Body;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import api_learner.Options;
+
+/**
+ * An analyzed input for the benchmarks. The input is either one of the
+ * test fixtures in src/test/resources, e.g., "callgraph_tests", or a
+ * generated program "generated-N" with N methods that call each other,
+ * dispatch virtually, and use java.io and java.util.
+ *
+ * The input is compiled and analyzed once with {@link SootToCfg}, so the
+ * Scene, the bodies and the local graphs are ready for the benchmarks. All
+ * files live in a temporary work directory that {@link #delete} removes.
+ *
+ * @author schaef
+ */
+public class BenchmarkInput {
+
+	private static final String FIXTURES = "src/test/resources/";
+	private static final String GENERATED = "generated-";
+
+	private final SootToCfg soot2cfg = new SootToCfg();
+	private final List<Body> bodies = new ArrayList<Body>();
+	private final File workDir;
+
+	public BenchmarkInput(String input) throws IOException {
+		workDir = File.createTempFile("apilearner_bench", "");
+		if (!workDir.delete() || !workDir.mkdir()) {
+			throw new IOException("Could not create " + workDir);
+		}
+		File sourceDir;
+		if (input.startsWith(GENERATED)) {
+			sourceDir = new File(workDir, "src");
+			generate(sourceDir, Integer.parseInt(input.substring(GENERATED.length())));
+		} else {
+			sourceDir = new File(FIXTURES + input);
+		}
+		File classDir = new File(workDir, "classes");
+		compile(sourceDir, classDir);
+
+		soot.G.reset();
+		Options.resetInstance();
+		Options.v().setNamespace("java");
+		Options.v().setGenerateDot(false);
+		Options.v().setOutFileDirName(new File(workDir, "out").getAbsolutePath());
+		soot2cfg.run(classDir.getAbsolutePath());
+		for (SootClass sc : Scene.v().getApplicationClasses()) {
+			for (SootMethod sm : sc.getMethods()) {
+				if (sm.hasActiveBody()) {
+					bodies.add(sm.getActiveBody());
+				}
+			}
+		}
+	}
+
+	public SootToCfg getSootToCfg() {
+		return soot2cfg;
+	}
+
+	public List<Body> getBodies() {
+		return bodies;
+	}
+
+	public File getWorkDir() {
+		return workDir;
+	}
+
+	/**
+	 * Deletes the work directory with the compiled input and the output.
+	 *
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+		delete(workDir);
+	}
+
+	private static void delete(File f) throws IOException {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		if (f.exists() && !f.delete()) {
+			throw new IOException("Failed to delete file: " + f);
+		}
+	}
+
+	private static void compile(File sourceDir, File classDir) throws IOException {
+		if (!classDir.mkdirs()) {
+			throw new IOException("Could not create " + classDir);
+		}
+		List<String> command = new ArrayList<String>();
+		command.add("javac");
+		command.add("-g");
+		command.add("-d");
+		command.add(classDir.getAbsolutePath());
+		File[] sources = sourceDir.listFiles();
+		if (sources == null) {
+			throw new IOException("Input not found: " + sourceDir);
+		}
+		for (File f : sources) {
+			if (f.getName().endsWith(".java")) {
+				command.add(f.getAbsolutePath());
+			}
+		}
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectOutput(Redirect.INHERIT);
+		pb.redirectError(Redirect.INHERIT);
+		try {
+			if (pb.start().waitFor() != 0) {
+				throw new IOException("Could not compile " + sourceDir);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.toString());
+		}
+	}
+
+	/**
+	 * Writes a program with methods m0 to m(n-1). Method i calls 2i+1 and
+	 * 2i+2, every seventh method also calls back to i/2, which gives
+	 * recursive components. All methods read through a Reader, and call
+	 * one of several implementations of Shape.
+	 */
+	private static void generate(File sourceDir, int n) throws IOException {
+		if (!sourceDir.mkdirs()) {
+			throw new IOException("Could not create " + sourceDir);
+		}
+		final int shapes = 4;
+		try (PrintWriter pw = new PrintWriter(new File(sourceDir, "Shape.java"), "utf-8")) {
+			pw.println("public interface Shape { double area(); }");
+		}
+		for (int i = 0; i < shapes; i++) {
+			try (PrintWriter pw = new PrintWriter(new File(sourceDir, "Shape" + i + ".java"), "utf-8")) {
+				pw.println("public class Shape" + i + " implements Shape {");
+				pw.println("\tpublic double area() { return new java.util.ArrayList<Integer>(" + i + ").size(); }");
+				pw.println("}");
+			}
+		}
+		try (PrintWriter pw = new PrintWriter(new File(sourceDir, "Generated.java"), "utf-8")) {
+			pw.println("import java.io.*;");
+			pw.println("import java.util.*;");
+			pw.println("public class Generated {");
+			pw.println("\tprivate final Shape[] shapes = { new Shape0(), new Shape1(), new Shape2(), new Shape3() };");
+			for (int i = 0; i < n; i++) {
+				pw.println("\tpublic int m" + i + "(Reader r, int k) throws IOException {");
+				pw.println("\t\tList<String> l = new ArrayList<String>();");
+				pw.println("\t\tint sum = 0;");
+				pw.println("\t\ttry {");
+				pw.println("\t\t\twhile (r.read() >= 0 && sum < k) {");
+				pw.println("\t\t\t\tsum += (int) shapes[sum % " + shapes + "].area();");
+				pw.println("\t\t\t\tl.add(String.valueOf(sum));");
+				pw.println("\t\t\t}");
+				if (2 * i + 1 < n) {
+					pw.println("\t\t\tif (k > 0) { sum += m" + (2 * i + 1) + "(r, k - 1); }");
+				}
+				if (2 * i + 2 < n) {
+					pw.println("\t\t\telse { sum += m" + (2 * i + 2) + "(new StringReader(l.toString()), k); }");
+				}
+				if (i > 0 && i % 7 == 0) {
+					pw.println("\t\t\tif (l.isEmpty()) { sum += m" + (i / 2) + "(r, k - 2); }");
+				}
+				pw.println("\t\t} catch (EOFException e) {");
+				pw.println("\t\t\tr.close();");
+				pw.println("\t\t}");
+				pw.println("\t\treturn sum;");
+				pw.println("\t}");
+			}
+			pw.println("}");
+		}
+	}
+}
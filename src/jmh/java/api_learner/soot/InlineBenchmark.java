@@ -0,0 +1,74 @@
+package api_learner.soot;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import soot.SootMethod;
+
+/**
+ * Benchmarks {@link SootToCfg#inlineCallgraphs} on all entries of an
+ * input, bottom-up over the components as in {@link SootToCfg#run}, but
+ * without writing the graphs. The summaries are rebuilt in every call.
+ *
+ * @author schaef
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class InlineBenchmark {
+
+	@Param({ "callgraph_tests", "exception_tests", "mutual_recursive", "generated-200" })
+	public String input;
+
+	private BenchmarkInput benchmarkInput;
+	private SootToCfg soot2cfg;
+	private MyCallDependencyGraph callDependencies;
+	private Set<SootMethod> entries;
+
+	@Setup
+	public void setup() throws IOException {
+		benchmarkInput = new BenchmarkInput(input);
+		soot2cfg = benchmarkInput.getSootToCfg();
+		callDependencies = new MyCallDependencyGraph(soot2cfg.callDependencyMap);
+		entries = new HashSet<SootMethod>(callDependencies.getEntries());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		benchmarkInput.delete();
+	}
+
+	@Benchmark
+	public void inlineCallgraphs(Blackhole bh) {
+		soot2cfg.inlinedSummaries.clear();
+		for (List<SootMethod> component : callDependencies.getComponents()) {
+			for (SootMethod m : component) {
+				if (entries.contains(m) || callDependencies.isCalledFromOtherComponent(m)) {
+					bh.consume(soot2cfg.inlineCallgraphs(m, new CompactCallGraph(),
+							new HashMap<SootMethod, InlinedCallGraph>()));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package api_learner.soot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import soot.Body;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.Stmt;
+
+/**
+ * Benchmarks the construction of the local call graphs: the flow analysis
+ * of {@link LocalCallGraphBuilder}, the resolution of virtual calls with
+ * an empty dispatch cache, and writing a local graph as dot file.
+ *
+ * @author schaef
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LocalCallGraphBenchmark {
+
+	@Param({ "callgraph_tests", "exception_tests", "mutual_recursive", "generated-200" })
+	public String input;
+
+	private BenchmarkInput benchmarkInput;
+	private List<Body> bodies;
+	// one builder per body.
+	private final List<LocalCallGraphBuilder> builders = new ArrayList<LocalCallGraphBuilder>();
+	// the builder of the body of each virtual call.
+	private final List<LocalCallGraphBuilder> virtualCallBuilders = new ArrayList<LocalCallGraphBuilder>();
+	private final List<Stmt> virtualCalls = new ArrayList<Stmt>();
+	private File dotFile;
+
+	@Setup
+	public void setup() throws IOException {
+		benchmarkInput = new BenchmarkInput(input);
+		bodies = benchmarkInput.getBodies();
+		dotFile = new File(benchmarkInput.getWorkDir(), "local.dot");
+		for (Body body : bodies) {
+			LocalCallGraphBuilder builder = new LocalCallGraphBuilder(body);
+			builders.add(builder);
+			for (Unit u : body.getUnits()) {
+				Stmt s = (Stmt) u;
+				if (s.containsInvokeExpr() && s.getInvokeExpr() instanceof InstanceInvokeExpr) {
+					virtualCallBuilders.add(builder);
+					virtualCalls.add(s);
+				}
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		benchmarkInput.delete();
+	}
+
+	/**
+	 * Runs the flow analysis, i.e., flowThrough, on all bodies.
+	 */
+	@Benchmark
+	public void flowThrough(Blackhole bh) {
+		for (Body body : bodies) {
+			bh.consume(new LocalCallGraphBuilder(body).getLocalCallGraph());
+		}
+	}
+
+	@Benchmark
+	public void resolveVirtualCall(Blackhole bh) {
+		VirtualDispatchCache.resetInstance();
+		for (int i = 0; i < virtualCalls.size(); i++) {
+			InstanceInvokeExpr ivk = (InstanceInvokeExpr) virtualCalls.get(i).getInvokeExpr();
+			bh.consume(virtualCallBuilders.get(i).resolveVirtualCall(virtualCalls.get(i), ivk.getBase(), ivk.getMethod()));
+		}
+	}
+
+	/**
+	 * Writes the local graphs that were built in {@link #setup}.
+	 */
+	@Benchmark
+	public void toDot() {
+		for (LocalCallGraphBuilder builder : builders) {
+			builder.toDot(dotFile.getAbsolutePath());
+		}
+	}
+}
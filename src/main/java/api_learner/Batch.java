@@ -0,0 +1,421 @@
+package api_learner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import api_learner.util.Log;
+
+/**
+ * Analyzes many inputs on a pool of child vms. Each child runs as a
+ * {@link Daemon}, so jobs on the same child share the library classes of
+ * the Soot scene. The inputs are given as a file with one input per line
+ * or as a glob pattern. Each input gets its own subdirectory of the output
+ * directory, and the result of every input is written to
+ * {@link #SUMMARY_FILENAME}.
+ *
+ * All options other than the input, the output directory, and the batch
+ * options are passed on to the jobs. A job that takes longer than
+ * -job-timeout seconds is aborted by killing its child.
+ *
+ * @author schaef
+ */
+public class Batch {
+
+	public static final String SUMMARY_FILENAME = "batch.txt";
+	private static final int MAX_REPORTED_FAILURES = 10;
+	private static final Job END = new Job(null, null);
+
+	private static class Job {
+		final String input;
+		final String subdir;
+		String result;
+
+		Job(String input, String subdir) {
+			this.input = input;
+			this.subdir = subdir;
+		}
+	}
+
+	private final List<String> jobOptions;
+	private final File outputDir;
+	private final String cacheDir;
+	private final long jobTimeout;
+	private final BlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+	private ScheduledExecutorService watchdog;
+
+	/**
+	 * @param args
+	 *            the command line, from which the options for the jobs
+	 *            are taken
+	 */
+	public Batch(String[] args) {
+		this.jobOptions = jobOptions(args);
+		this.outputDir = new File(Options.v().getOutFileDirName()).getAbsoluteFile();
+		this.cacheDir = Options.v().getCacheDir() == null ? null : new File(Options.v().getCacheDir())
+				.getAbsolutePath();
+		this.jobTimeout = Options.v().getJobTimeout();
+	}
+
+	/**
+	 * Runs all inputs and logs a summary.
+	 *
+	 * @return the number of inputs that failed.
+	 */
+	public int run() throws IOException {
+		List<String> inputs = findInputs(Options.v().getBatch());
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Cannot create " + outputDir);
+		}
+		int jvms = Math.max(1, Math.min(Options.v().getJvms(), inputs.size()));
+		List<Job> jobs = new ArrayList<Job>();
+		Set<String> subdirs = new HashSet<String>();
+		for (int i = 0; i < jvms; i++) {
+			subdirs.add(workerDirName(i));
+		}
+		for (String input : inputs) {
+			Job job = new Job(new File(input).getAbsolutePath(), subdirFor(input, subdirs));
+			jobs.add(job);
+			queue.add(job);
+		}
+		Log.info("Analyzing " + jobs.size() + " inputs on " + jvms + " vms.");
+		long start = System.currentTimeMillis();
+		watchdog = Executors.newSingleThreadScheduledExecutor();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < jvms; i++) {
+			queue.add(END);
+			final int id = i;
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runJobs(id);
+				}
+			}, "batch-worker-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the workers.");
+		} finally {
+			watchdog.shutdownNow();
+		}
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		return summarize(jobs, millis);
+	}
+
+	/**
+	 * Runs jobs from the queue on one child vm. If the child dies or the
+	 * job times out, the current job fails and a new child is started for
+	 * the next one.
+	 */
+	private void runJobs(int id) {
+		File workDir = new File(outputDir, workerDirName(id));
+		File log = new File(workDir, "stderr.log");
+		Process child = null;
+		BufferedReader results = null;
+		Writer jobs = null;
+		try {
+			while (true) {
+				Job job;
+				try {
+					job = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (job == END) {
+					return;
+				}
+				final AtomicBoolean timedOut = new AtomicBoolean(false);
+				ScheduledFuture<?> killer = null;
+				try {
+					if (child == null) {
+						child = startChild(workDir, log);
+						results = new BufferedReader(new InputStreamReader(child.getInputStream(), "utf-8"));
+						jobs = new OutputStreamWriter(child.getOutputStream(), "utf-8");
+					}
+					if (jobTimeout > 0) {
+						// killing the child ends the readLine below.
+						final Process running = child;
+						killer = watchdog.schedule(new Runnable() {
+							@Override
+							public void run() {
+								timedOut.set(true);
+								running.destroy();
+							}
+						}, jobTimeout, TimeUnit.SECONDS);
+					}
+					jobs.write(jobLine(job));
+					jobs.write("\n");
+					jobs.flush();
+					job.result = results.readLine();
+				} catch (IOException e) {
+					job.result = null;
+				} finally {
+					if (killer != null) {
+						killer.cancel(false);
+					}
+				}
+				if (timedOut.get()) {
+					// the child may have answered just before it was killed.
+					if (job.result == null) {
+						job.result = "ERROR timeout after " + jobTimeout + "s";
+					}
+					child.destroy();
+					child = null;
+				} else if (job.result == null) {
+					job.result = "ERROR vm died, see " + log;
+					if (child != null) {
+						child.destroy();
+						child = null;
+					}
+				}
+				Log.info(job.input + ": " + job.result);
+			}
+		} finally {
+			if (child != null) {
+				try {
+					jobs.write("quit\n");
+					jobs.flush();
+					child.waitFor();
+				} catch (IOException e) {
+					child.destroy();
+				} catch (InterruptedException e) {
+					child.destroy();
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private static String workerDirName(int id) {
+		return "worker-" + id;
+	}
+
+	/**
+	 * Starts a child vm that runs in workDir and writes its stderr to log.
+	 */
+	private Process startChild(File workDir, File log) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(childVmArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Main.class.getName());
+		command.add("-daemon");
+		ProcessBuilder pb = new ProcessBuilder(command);
+		// each child writes a log file into its working directory.
+		if (!workDir.isDirectory() && !workDir.mkdirs()) {
+			throw new IOException("Cannot create " + workDir);
+		}
+		pb.directory(workDir);
+		pb.redirectError(ProcessBuilder.Redirect.appendTo(log));
+		return pb.start();
+	}
+
+	/**
+	 * Returns the arguments of this vm, i.e., the same heap settings etc.,
+	 * without those that attach a debugger or an agent. Every child would
+	 * try to bind the same debug port and fail to start.
+	 */
+	private static List<String> childVmArguments() {
+		List<String> res = new ArrayList<String>();
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("-agentlib:") || arg.startsWith("-agentpath:") || arg.startsWith("-javaagent:")
+					|| arg.equals("-Xdebug") || arg.startsWith("-Xrunjdwp")) {
+				continue;
+			}
+			res.add(arg);
+		}
+		return res;
+	}
+
+	private String jobLine(Job job) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("-j ").append(job.input);
+		sb.append(" -o ").append(new File(outputDir, job.subdir).getAbsolutePath());
+		if (cacheDir != null) {
+			// the caches of different inputs would invalidate each other.
+			sb.append(" -cache ").append(new File(cacheDir, job.subdir).getAbsolutePath());
+		}
+		for (String option : jobOptions) {
+			sb.append(" ").append(option);
+		}
+		return sb.toString();
+	}
+
+	private int summarize(List<Job> jobs, long millis) throws IOException {
+		List<Job> failed = new ArrayList<Job>();
+		int graphs = 0;
+		File summaryFile = new File(outputDir, SUMMARY_FILENAME);
+		try (PrintWriter summary = new PrintWriter(summaryFile, "utf-8")) {
+			for (Job job : jobs) {
+				summary.println(job.input + "\t" + job.subdir + "\t" + job.result);
+				if (job.result.startsWith("OK ")) {
+					graphs += Integer.parseInt(job.result.split(" ")[1]);
+				} else {
+					failed.add(job);
+				}
+			}
+		}
+		Log.info(String.format("Analyzed %d inputs in %.1fs (%.1f inputs/min, %d graphs), %d failed.", jobs.size(),
+				millis / 1000.0, jobs.size() * 60000.0 / millis, graphs, failed.size()));
+		int i = 0;
+		for (Job job : failed) {
+			if (i++ == MAX_REPORTED_FAILURES) {
+				Log.error("\t... see " + summaryFile);
+				break;
+			}
+			Log.error("\t" + job.input + ": " + job.result);
+		}
+		return failed.size();
+	}
+
+	/**
+	 * Returns the options of args without the input, the output directory,
+	 * the cache, and the batch options. The children run in the output
+	 * directory, so class paths are made absolute.
+	 */
+	private static List<String> jobOptions(String[] args) {
+		Set<String> dropped = new HashSet<String>();
+		Collections.addAll(dropped, "-j", "-o", "-cache", "-batch", "-jvms", "-job-timeout");
+		Set<String> paths = new HashSet<String>();
+		Collections.addAll(paths, "-cp", "-android-jars");
+		List<String> res = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (dropped.contains(args[i])) {
+				i++;
+			} else if (paths.contains(args[i]) && i + 1 < args.length) {
+				res.add(args[i]);
+				res.add(absolutePaths(args[++i]));
+			} else {
+				res.add(args[i]);
+			}
+		}
+		return res;
+	}
+
+	private static String absolutePaths(String classPath) {
+		StringBuilder sb = new StringBuilder();
+		for (String entry : classPath.split(File.pathSeparator)) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			sb.append(entry.isEmpty() ? entry : new File(entry).getAbsolutePath());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Picks a subdirectory name for input that is not used yet.
+	 */
+	private static String subdirFor(String input, Set<String> used) {
+		String name = new File(input).getName();
+		if (name.endsWith(".jar") || name.endsWith(".apk")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		String res = name;
+		for (int i = 2; !used.add(res); i++) {
+			res = name + "-" + i;
+		}
+		return res;
+	}
+
+	/**
+	 * @param batch
+	 *            a file with one input per line, or a glob pattern
+	 * @return the inputs.
+	 */
+	static List<String> findInputs(String batch) throws IOException {
+		List<String> inputs = new ArrayList<String>();
+		if (batch.contains("*") || batch.contains("?") || batch.contains("[") || batch.contains("{")) {
+			inputs.addAll(glob(batch));
+		} else {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(batch), "utf-8"))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						inputs.add(line);
+					}
+				}
+			}
+		}
+		for (String input : inputs) {
+			// the daemon splits its jobs at whitespace.
+			if (input.matches(".*\\s.*")) {
+				throw new IOException("Input paths must not contain whitespace: " + input);
+			}
+		}
+		return inputs;
+	}
+
+	/**
+	 * Returns all jars, apks, and directories that match pattern, in
+	 * lexicographic order. Matching directories are not searched further.
+	 */
+	private static List<String> glob(String pattern) throws IOException {
+		Path absolute = Paths.get(pattern).toAbsolutePath();
+		// search from the last directory before the first wildcard.
+		Path base = absolute.getRoot();
+		for (Path segment : absolute) {
+			if (segment.toString().matches(".*[*?\\[{].*")) {
+				break;
+			}
+			base = base.resolve(segment);
+		}
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + absolute.toString());
+		final List<String> res = new ArrayList<String>();
+		Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (matcher.matches(dir)) {
+					res.add(dir.toString());
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				String name = file.getFileName().toString();
+				if (matcher.matches(file) && (name.endsWith(".jar") || name.endsWith(".apk"))) {
+					res.add(file.toString());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(res);
+		return res;
+	}
+}
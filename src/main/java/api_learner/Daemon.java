@@ -0,0 +1,86 @@
+package api_learner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+import api_learner.soot.SceneRecycler;
+import api_learner.soot.SootToCfg;
+import api_learner.util.Log;
+
+/**
+ * Runs many analysis jobs in one vm. Each line of the input is one job and
+ * holds the options of a single run, separated by whitespace. For each
+ * job, one line is written to the output:
+ *
+ * <pre>
+ * OK &lt;number of dot files&gt; &lt;milliseconds&gt; &lt;warm|cold&gt;
+ * ERROR &lt;message&gt;
+ * </pre>
+ *
+ * The daemon stops at the end of the input or at a line "quit". Jobs that
+ * use the same class path share the library classes of the Soot scene (see
+ * {@link SceneRecycler}), so only their application classes are loaded.
+ *
+ * @author schaef
+ */
+public class Daemon {
+
+	public void serve(BufferedReader in, PrintStream out) throws IOException {
+		SceneRecycler recycler = SceneRecycler.v();
+		int jobs = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			if (line.equals("quit")) {
+				break;
+			}
+			out.println(runJob(line.split("\\s+")));
+			out.flush();
+			jobs++;
+		}
+		Log.info("Daemon ran " + jobs + " jobs, " + recycler.getReused() + " on a reused scene.");
+	}
+
+	private String runJob(String[] args) {
+		Options.resetInstance();
+		long start = System.currentTimeMillis();
+		try {
+			new CmdLineParser(Options.v()).parseArgument(args);
+			if (Options.v().isDaemon()) {
+				return "ERROR -daemon is not allowed in a job";
+			}
+			boolean warm = SceneRecycler.v().prepare(Options.v().getJavaInput(), Options.v().getClasspath(),
+					Options.v().getCallGraphAlgorithm());
+			Collection<String> dotfileNames = new SootToCfg().run(Options.v().getJavaInput());
+			return "OK " + dotfileNames.size() + " " + (System.currentTimeMillis() - start) + " "
+					+ (warm ? "warm" : "cold");
+		} catch (CmdLineException e) {
+			return "ERROR " + singleLine(e.getMessage());
+		} catch (RuntimeException e) {
+			// do not build on a scene that is only half loaded.
+			SceneRecycler.v().invalidate();
+			Log.error(e.toString());
+			return "ERROR " + singleLine(e.toString());
+		} catch (StackOverflowError e) {
+			// deep recursion in Soot or the inliner only breaks this job.
+			// Other errors end the daemon.
+			SceneRecycler.v().invalidate();
+			Log.error(e.toString());
+			return "ERROR " + singleLine(e.toString());
+		} finally {
+			Options.resetInstance();
+		}
+	}
+
+	private static String singleLine(String message) {
+		return String.valueOf(message).replace('\n', ' ').replace('\r', ' ');
+	}
+}
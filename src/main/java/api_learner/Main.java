@@ -3,9 +3,14 @@
  */
 package api_learner;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
+import api_learner.soot.OffHeapGraphStore;
 import api_learner.soot.SootToCfg;
 import api_learner.util.Log;
 
@@ -23,6 +28,19 @@ public class Main {
 	
 			// parse command-line arguments
 			parser.parseArgument(args);
+			if (options.isDaemon()) {
+				PrintStream jobResults = System.out;
+				// keep the log output away from the job results.
+				System.setOut(System.err);
+				new Daemon().serve(new BufferedReader(new InputStreamReader(System.in, "utf-8")), jobResults);
+				return;
+			}
+			if (options.getBatch() != null) {
+				if (new Batch(args).run() > 0) {
+					System.exit(1);
+				}
+				return;
+			}
 			SootToCfg soot2cfg = new SootToCfg();
 			soot2cfg.run(Options.v().getJavaInput());
 			System.err.println("Written output to "+ Options.v().getOutFileDirName());
@@ -35,6 +53,7 @@ public class Main {
 			throw t;
 		} finally {
 			Options.resetInstance();
+			OffHeapGraphStore.resetInstance();
 			soot.G.reset();
 		}
 	}
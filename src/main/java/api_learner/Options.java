@@ -72,7 +72,120 @@ public class Options {
 	public boolean getGeneratePdf() {
 		return this.generatePdf;
 	}
+
+	@Option(name = "-no-dot", usage = "Only write the graph archive callgraphs.bin, no dot files (cannot be combined with -pdf).", required = false)
+	private boolean noDot = false;
+
+	public boolean getGenerateDot() {
+		return !this.noDot;
+	}
+
+	public void setGenerateDot(boolean generateDot) {
+		this.noDot = !generateDot;
+	}
+
+	@Option(name = "-dot-binary", usage = "Path of the graphviz dot binary used by -pdf.", required = false)
+	private String dotBinary = "/usr/local/bin/dot";
+
+	public String getDotBinary() {
+		return this.dotBinary;
+	}
+
+	public void setDotBinary(String dotBinary) {
+		this.dotBinary = dotBinary;
+	}
+
+	@Option(name = "-pdf-threads", usage = "Number of concurrent pdf renderer processes (default: number of cores).", required = false)
+	private int pdfThreads = Runtime.getRuntime().availableProcessors();
+
+	public int getPdfThreads() {
+		return this.pdfThreads;
+	}
+
+	public void setPdfThreads(int pdfThreads) {
+		this.pdfThreads = pdfThreads;
+	}
+
+	@Option(name = "-pdf-timeout", usage = "Seconds after which rendering a single pdf file is aborted (default 60).", required = false)
+	private long pdfTimeout = 60;
+
+	public long getPdfTimeout() {
+		return this.pdfTimeout;
+	}
+
+	public void setPdfTimeout(long seconds) {
+		this.pdfTimeout = seconds;
+	}
 	
+	@Option(name = "-daemon", usage = "Read one job per line from stdin, each with the options of a single run, and keep the library classes loaded between jobs.", required = false)
+	private boolean daemon = false;
+
+	public boolean isDaemon() {
+		return this.daemon;
+	}
+
+	@Option(name = "-batch", usage = "Analyze all inputs listed in this file (one per line) or matching this glob pattern, each into its own subdirectory of -o.", required = false)
+	private String batch = null;
+
+	public String getBatch() {
+		return this.batch;
+	}
+
+	@Option(name = "-jvms", usage = "Number of child vms for -batch (default: half the number of cores).", required = false)
+	private int jvms = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	public int getJvms() {
+		return this.jvms;
+	}
+
+	public void setJvms(int jvms) {
+		this.jvms = jvms;
+	}
+
+	@Option(name = "-job-timeout", usage = "Seconds after which a -batch job is aborted and its vm restarted (default 1800, 0 for no limit).", required = false)
+	private long jobTimeout = 1800;
+
+	public long getJobTimeout() {
+		return this.jobTimeout;
+	}
+
+	public void setJobTimeout(long seconds) {
+		this.jobTimeout = seconds;
+	}
+
+	@Option(name = "-sparse-cfg", usage = "Run the analysis of each method only over its call sites, returns, throws, and units that may throw implicitly.", required = false)
+	private boolean sparseCfg = false;
+
+	public boolean isSparseCfg() {
+		return this.sparseCfg;
+	}
+
+	public void setSparseCfg(boolean sparseCfg) {
+		this.sparseCfg = sparseCfg;
+	}
+
+	@Option(name = "-minimize", usage = "Merge bisimilar nodes of each graph before it is written.", required = false)
+	private boolean minimize = false;
+
+	public boolean isMinimize() {
+		return this.minimize;
+	}
+
+	public void setMinimize(boolean minimize) {
+		this.minimize = minimize;
+	}
+
+	@Option(name = "-off-heap", usage = "Keep the call graphs that are no longer modified in a memory mapped scratch file instead of the heap.", required = false)
+	private boolean offHeap = false;
+
+	public boolean isOffHeap() {
+		return this.offHeap;
+	}
+
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
 	@Option(name = "-cg", usage = "Set the callgraph algorithm: CHA,RTA,VTA,SPARK, or None (default).", required = false)
 	private String callGraphAlgorithm = "None";
 	public CallgraphAlgorithm getCallGraphAlgorithm() {
@@ -98,6 +211,73 @@ public class Options {
 	
 	
 
+	/**
+	 * Number of worker threads for the local call graph construction
+	 */
+	@Option(name = "-threads", usage = "Number of threads used to build the per-method call graphs (default 1).", required = false)
+	private int threads = 1;
+
+	public int getThreads() {
+		return this.threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Number of threads that write the dot files
+	 */
+	@Option(name = "-writers", usage = "Number of threads that write the dot files while the next graphs are built (default 1).", required = false)
+	private int writers = 1;
+
+	public int getWriters() {
+		return this.writers;
+	}
+
+	public void setWriters(int writers) {
+		this.writers = writers;
+	}
+
+	/**
+	 * Budget of each head
+	 */
+	@Option(name = "-max-nodes", usage = "Calls whose inlining would grow the graph of a head beyond this many nodes are replaced by a summary node (default 0, no limit).", required = false)
+	private int maxNodes = 0;
+
+	public int getMaxNodes() {
+		return this.maxNodes;
+	}
+
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	@Option(name = "-max-edges", usage = "Same as -max-nodes, for the number of edges (default 0, no limit).", required = false)
+	private int maxEdges = 0;
+
+	public int getMaxEdges() {
+		return this.maxEdges;
+	}
+
+	public void setMaxEdges(int maxEdges) {
+		this.maxEdges = maxEdges;
+	}
+
+	/**
+	 * Directory for the incremental cache
+	 */
+	@Option(name = "-cache", usage = "Directory in which the local call graphs are cached between runs (off by default).", required = false)
+	private String cacheDir = null;
+
+	public String getCacheDir() {
+		return this.cacheDir;
+	}
+
+	public void setCacheDir(String dir) {
+		this.cacheDir = dir;
+	}
+
 	/**
 	 * Classpath
 	 */
@@ -108,7 +288,7 @@ public class Options {
 	/**
 	 * Namespace
 	 */
-	@Option(name = "-namespace", usage = "Namespace for which we want to build the icfg")
+	@Option(name = "-namespace", usage = "Comma separated package prefixes for which we want to build the icfg, prefixes starting with - are excluded (e.g., java.io,-java.io.ObjectInputStream)")
 	private String namespace=null;
 
 	public final String getNamespace() {
@@ -0,0 +1,86 @@
+package api_learner.archive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of one graph record (see {@link GraphArchiveWriter#encode}).
+ * Nothing is copied out of the buffer until a label or a list of successors
+ * is requested. The source of the graph is node 0.
+ *
+ * @author schaef
+ */
+public class ArchivedGraph {
+
+	private final ByteBuffer buffer;
+	private final StringTable strings;
+	private final int nodeCount;
+	private final int nodeTable;
+	private final int adjacency;
+
+	/**
+	 * @param buffer
+	 *            holds the record
+	 * @param offset
+	 *            position of the record in buffer
+	 * @param strings
+	 *            resolves the label ids
+	 */
+	public ArchivedGraph(ByteBuffer buffer, int offset, StringTable strings) {
+		this.buffer = buffer;
+		this.strings = strings;
+		this.nodeCount = buffer.getInt(offset);
+		this.nodeTable = offset + 4;
+		this.adjacency = this.nodeTable + 8 * this.nodeCount;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getSource() {
+		return 0;
+	}
+
+	public int getLabelId(int n) {
+		return buffer.getInt(nodeTable + 8 * n);
+	}
+
+	public String getLabel(int n) {
+		return strings.getString(getLabelId(n));
+	}
+
+	/**
+	 * @param n
+	 * @return the number of successors of n.
+	 */
+	public int getSuccessorCount(int n) {
+		return readVarint(new int[] { adjacency + buffer.getInt(nodeTable + 8 * n + 4) });
+	}
+
+	/**
+	 * @param n
+	 * @return the successors of n in ascending order.
+	 */
+	public int[] getSuccessors(int n) {
+		int[] pos = { adjacency + buffer.getInt(nodeTable + 8 * n + 4) };
+		int[] res = new int[readVarint(pos)];
+		int previous = 0;
+		for (int i = 0; i < res.length; i++) {
+			previous += readVarint(pos);
+			res[i] = previous;
+		}
+		return res;
+	}
+
+	private int readVarint(int[] pos) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(pos[0]++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
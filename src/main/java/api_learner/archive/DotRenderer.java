@@ -0,0 +1,114 @@
+package api_learner.archive;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Renders archived graphs as dot files. Only the nodes that are reachable
+ * from the source are written.
+ *
+ * @author schaef
+ */
+public class DotRenderer {
+
+	public static final String METHOD_TO_DOT_MAPPING_FILENAME = "methods.txt";
+
+	/**
+	 * @param sequence
+	 * @return the name of the dot file of the graph at that position.
+	 */
+	public static String dotFilename(int sequence) {
+		return String.format("%09d.dot", sequence);
+	}
+
+	/**
+	 * Writes one dot file per graph of archive into outputDir, named by the
+	 * position of the graph in the run, and a methods.txt that maps each
+	 * signature to its file.
+	 *
+	 * @param archive
+	 * @param outputDir
+	 * @return the names of the dot files.
+	 * @throws IOException
+	 */
+	public static Collection<String> renderAll(final GraphArchive archive, File outputDir) throws IOException {
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < archive.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(archive.getSequence(a), archive.getSequence(b));
+			}
+		});
+		Collection<String> dotfileNames = new LinkedList<String>();
+		File mappingFile = new File(outputDir, METHOD_TO_DOT_MAPPING_FILENAME);
+		try (Writer mapping = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mappingFile), "utf-8"))) {
+			for (int i : order) {
+				String dotFilename = dotFilename(archive.getSequence(i));
+				File dotFile = new File(outputDir, dotFilename);
+				write(archive.getGraph(i), dotFile);
+				dotfileNames.add(dotFile.getAbsolutePath());
+				mapping.write(archive.getSignature(i) + "\t" + dotFilename + "\n");
+			}
+		}
+		return dotfileNames;
+	}
+
+	/**
+	 * Writes the nodes of graph that are reachable from its source to
+	 * dotFile.
+	 *
+	 * @param graph
+	 * @param dotFile
+	 * @throws IOException
+	 */
+	public static void write(ArchivedGraph graph, File dotFile) throws IOException {
+		// collect the reachable nodes in breadth-first order.
+		int[] done = new int[graph.getNodeCount()];
+		boolean[] seen = new boolean[graph.getNodeCount()];
+		int doneCount = 0;
+		done[doneCount++] = graph.getSource();
+		seen[graph.getSource()] = true;
+		for (int i = 0; i < doneCount; i++) {
+			for (int suc : graph.getSuccessors(done[i])) {
+				if (!seen[suc]) {
+					seen[suc] = true;
+					done[doneCount++] = suc;
+				}
+			}
+		}
+
+		try (PrintWriter pw = new PrintWriter(dotFile, "utf-8")) {
+			pw.println("digraph dot {");
+			for (int i = 0; i < doneCount; i++) {
+				String shape = " shape=oval ";
+				pw.println("\t\"" + uniqueLabel(graph, done[i]) + "\" " + "[label=\"" + graph.getLabel(done[i])
+						+ "\" " + shape + "];\n");
+			}
+			pw.append("\n");
+			for (int i = 0; i < doneCount; i++) {
+				for (int to : graph.getSuccessors(done[i])) {
+					pw.append("\t\"" + uniqueLabel(graph, done[i]) + "\" -> \"" + uniqueLabel(graph, to) + "\";\n");
+				}
+			}
+			pw.println("}");
+		}
+	}
+
+	private static String uniqueLabel(ArchivedGraph graph, int n) {
+		return graph.getLabel(n) + "__" + n;
+	}
+}
@@ -0,0 +1,170 @@
+package api_learner.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader for the files written by {@link GraphArchiveWriter}. The file is
+ * memory-mapped, so opening it only reads the trailer, and graphs and
+ * strings are read from the mapping when they are requested. Graphs can be
+ * looked up by signature with a binary search over the index.
+ *
+ * A single buffer cannot map more than 2GB, so the records are mapped in
+ * windows of two segments that start at every segment boundary. Records
+ * are at most one segment long (see
+ * {@link GraphArchiveWriter#MAX_RECORD_BYTES}), so each record lies
+ * completely in the window of the segment it starts in. The string table
+ * and the index have their own mappings.
+ *
+ * @author schaef
+ */
+public class GraphArchive implements StringTable {
+
+	private static final int INDEX_ENTRY_SIZE = 16;
+
+	private final ByteBuffer[] windows;
+	private final int segmentBytes;
+	private final ByteBuffer strings;
+	private final ByteBuffer index;
+	private final int stringCount;
+	private final int stringData;
+	private final int indexSize;
+
+	public static GraphArchive open(File file) throws IOException {
+		return open(file, GraphArchiveWriter.MAX_RECORD_BYTES);
+	}
+
+	/**
+	 * @param file
+	 * @param segmentBytes
+	 *            distance between the starts of two mapped windows, at most
+	 *            {@link GraphArchiveWriter#MAX_RECORD_BYTES}. No record of
+	 *            the archive may be longer.
+	 * @return
+	 * @throws IOException
+	 */
+	public static GraphArchive open(File file, int segmentBytes) throws IOException {
+		if (segmentBytes <= 0 || segmentBytes > GraphArchiveWriter.MAX_RECORD_BYTES) {
+			throw new IllegalArgumentException("Illegal segment size " + segmentBytes);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			final long size = channel.size();
+			if (size < 8 + GraphArchiveWriter.TRAILER_SIZE) {
+				throw new IOException("Not a graph archive: " + file);
+			}
+			// the mappings stay valid after the channel is closed.
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - GraphArchiveWriter.TRAILER_SIZE,
+					GraphArchiveWriter.TRAILER_SIZE);
+			if (header.getInt(0) != GraphArchiveWriter.MAGIC || trailer.getInt(16) != GraphArchiveWriter.MAGIC) {
+				throw new IOException("Not a graph archive: " + file);
+			}
+			if (header.getInt(4) != GraphArchiveWriter.VERSION) {
+				throw new IOException("Unsupported graph archive version " + header.getInt(4) + ": " + file);
+			}
+			final long stringsOffset = trailer.getLong(0);
+			final long indexOffset = trailer.getLong(8);
+			final long indexEnd = size - GraphArchiveWriter.TRAILER_SIZE;
+			if (stringsOffset < 8 || indexOffset < stringsOffset || indexEnd < indexOffset
+					|| indexOffset - stringsOffset > Integer.MAX_VALUE || indexEnd - indexOffset > Integer.MAX_VALUE) {
+				throw new IOException("Corrupt graph archive: " + file);
+			}
+			ByteBuffer[] windows = new ByteBuffer[(int) ((stringsOffset + segmentBytes - 1) / segmentBytes)];
+			for (int i = 0; i < windows.length; i++) {
+				long start = (long) i * segmentBytes;
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(stringsOffset - start, 2L * segmentBytes - 1));
+			}
+			return new GraphArchive(windows, segmentBytes,
+					channel.map(FileChannel.MapMode.READ_ONLY, stringsOffset, indexOffset - stringsOffset),
+					channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexEnd - indexOffset));
+		}
+	}
+
+	private GraphArchive(ByteBuffer[] windows, int segmentBytes, ByteBuffer strings, ByteBuffer index) {
+		this.windows = windows;
+		this.segmentBytes = segmentBytes;
+		this.strings = strings;
+		this.index = index;
+		this.stringCount = strings.getInt(0);
+		this.stringData = 4 + 4 * (this.stringCount + 1);
+		this.indexSize = index.getInt(0);
+	}
+
+	/**
+	 * @return the number of graphs.
+	 */
+	public int size() {
+		return indexSize;
+	}
+
+	/**
+	 * @param i
+	 *            position in the index, which is sorted by signature
+	 * @return
+	 */
+	public String getSignature(int i) {
+		return getString(index.getInt(4 + INDEX_ENTRY_SIZE * i));
+	}
+
+	/**
+	 * @param i
+	 *            position in the index
+	 * @return the position of the graph in the output of the run.
+	 */
+	public int getSequence(int i) {
+		return index.getInt(4 + INDEX_ENTRY_SIZE * i + 4);
+	}
+
+	public ArchivedGraph getGraph(int i) {
+		long offset = index.getLong(4 + INDEX_ENTRY_SIZE * i + 8);
+		int window = (int) (offset / segmentBytes);
+		return new ArchivedGraph(windows[window], (int) (offset - (long) window * segmentBytes), this);
+	}
+
+	/**
+	 * @param signature
+	 * @return the graph of the method with that signature, or null.
+	 */
+	public ArchivedGraph getGraph(String signature) {
+		int i = find(signature);
+		return i < 0 ? null : getGraph(i);
+	}
+
+	/**
+	 * @param signature
+	 * @return the position of signature in the index, or -1.
+	 */
+	public int find(String signature) {
+		int low = 0;
+		int high = indexSize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = getSignature(mid).compareTo(signature);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String getString(int id) {
+		if (id < 0 || id >= stringCount) {
+			throw new IndexOutOfBoundsException("No string with id " + id);
+		}
+		int start = strings.getInt(4 + 4 * id);
+		int end = strings.getInt(4 + 4 * (id + 1));
+		ByteBuffer bytes = strings.duplicate();
+		bytes.position(stringData + start);
+		bytes.limit(stringData + end);
+		return GraphArchiveWriter.UTF8.decode(bytes).toString();
+	}
+}
@@ -0,0 +1,201 @@
+package api_learner.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes all graphs of a run into one binary file. The layout (big endian)
+ * is:
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION
+ * records: one per graph, see {@link #encode}
+ * strings: int count, int[count+1] start of each string in the data,
+ *          utf-8 data
+ * index:   int count, count x (int signature id, int sequence,
+ *          long record offset), sorted by signature
+ * trailer: long offset of strings, long offset of index, int MAGIC
+ * </pre>
+ *
+ * Labels and signatures are interned into the same string table. Records
+ * can be appended from several threads. A record may have at most
+ * {@link #MAX_RECORD_BYTES}, and the string table and the index at most
+ * 2GB each, so {@link GraphArchive} can map them.
+ *
+ * @author schaef
+ */
+public class GraphArchiveWriter implements StringTable, Closeable {
+
+	public static final int MAGIC = 0x41504947; // "APIG"
+	public static final int VERSION = 1;
+	public static final int TRAILER_SIZE = 20;
+	public static final int MAX_RECORD_BYTES = 1 << 30;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final DataOutputStream out;
+	private long position = 0L;
+	private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+	private final List<long[]> index = new ArrayList<long[]>();
+
+	public GraphArchiveWriter(File file) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		position += 8;
+	}
+
+	/**
+	 * @param s
+	 * @return the id of s in the string table.
+	 */
+	public synchronized int intern(String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	@Override
+	public synchronized String getString(int id) {
+		return strings.get(id);
+	}
+
+	/**
+	 * Encodes a graph whose source is node 0. A record is the number of
+	 * nodes, followed by one (int label id, int adjacency offset) pair per
+	 * node, followed by the adjacency lists. Each list is the number of
+	 * successors and the sorted successors, all as unsigned varints and each
+	 * successor as the difference to the previous one.
+	 *
+	 * @param labels
+	 *            the label id of each node
+	 * @param successors
+	 *            the successors of each node
+	 * @return the record.
+	 */
+	public static byte[] encode(int[] labels, int[][] successors) {
+		ByteArrayOutputStream adjacency = new ByteArrayOutputStream();
+		int[] adjacencyOffsets = new int[labels.length];
+		for (int n = 0; n < labels.length; n++) {
+			adjacencyOffsets[n] = adjacency.size();
+			int[] sorted = Arrays.copyOf(successors[n], successors[n].length);
+			Arrays.sort(sorted);
+			writeVarint(adjacency, sorted.length);
+			int previous = 0;
+			for (int suc : sorted) {
+				writeVarint(adjacency, suc - previous);
+				previous = suc;
+			}
+		}
+		ByteArrayOutputStream record = new ByteArrayOutputStream(4 + 8 * labels.length + adjacency.size());
+		try (DataOutputStream data = new DataOutputStream(record)) {
+			data.writeInt(labels.length);
+			for (int n = 0; n < labels.length; n++) {
+				data.writeInt(labels[n]);
+				data.writeInt(adjacencyOffsets[n]);
+			}
+			adjacency.writeTo(data);
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString());
+		}
+		return record.toByteArray();
+	}
+
+	/**
+	 * Appends the record of the graph of signature.
+	 *
+	 * @param signature
+	 * @param sequence
+	 *            position of the graph in the output, e.g., for the name of
+	 *            its dot file
+	 * @param record
+	 *            see {@link #encode}
+	 * @throws IOException
+	 */
+	public synchronized void append(String signature, int sequence, byte[] record) throws IOException {
+		if (record.length > MAX_RECORD_BYTES) {
+			throw new IOException("The graph of " + signature + " needs " + record.length
+					+ " bytes, the archive allows at most " + MAX_RECORD_BYTES + ".");
+		}
+		index.add(new long[] { intern(signature), sequence, position });
+		out.write(record);
+		position += record.length;
+	}
+
+	/**
+	 * Writes the string table, the index, and the trailer.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			final long stringsOffset = position;
+			byte[][] encoded = new byte[strings.size()][];
+			long start = 0;
+			for (int i = 0; i < encoded.length; i++) {
+				encoded[i] = strings.get(i).getBytes(UTF8);
+				start += encoded[i].length;
+			}
+			if (4L + 4L * (encoded.length + 1) + start > Integer.MAX_VALUE
+					|| 4L + 16L * index.size() > Integer.MAX_VALUE) {
+				throw new IOException("The string table or the index of the archive is larger than 2GB.");
+			}
+			out.writeInt(strings.size());
+			start = 0;
+			for (int i = 0; i < encoded.length; i++) {
+				out.writeInt((int) start);
+				start += encoded[i].length;
+			}
+			out.writeInt((int) start);
+			for (byte[] s : encoded) {
+				out.write(s);
+			}
+			position += 4 + 4 * (encoded.length + 1) + start;
+
+			final long indexOffset = position;
+			Collections.sort(index, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) {
+					return strings.get((int) a[0]).compareTo(strings.get((int) b[0]));
+				}
+			});
+			out.writeInt(index.size());
+			for (long[] entry : index) {
+				out.writeInt((int) entry[0]);
+				out.writeInt((int) entry[1]);
+				out.writeLong(entry[2]);
+			}
+			position += 4 + 16 * index.size();
+
+			out.writeLong(stringsOffset);
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -0,0 +1,11 @@
+package api_learner.archive;
+
+/**
+ * Maps the string ids used in graph records to strings.
+ * 
+ * @author schaef
+ */
+public interface StringTable {
+
+	String getString(int id);
+}
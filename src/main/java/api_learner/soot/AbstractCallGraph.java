@@ -0,0 +1,130 @@
+package api_learner.soot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import api_learner.archive.GraphArchiveWriter;
+
+/**
+ * Read access to a call graph over int node ids, either a
+ * {@link CompactCallGraph} on the heap or an {@link OffHeapCallGraph}
+ * record. The writers only need this, so they never copy a graph.
+ *
+ * @author schaef
+ */
+public abstract class AbstractCallGraph {
+
+	/**
+	 * Number of node ids in use, including removed nodes.
+	 */
+	public abstract int size();
+
+	/**
+	 * Number of edges, including those of removed nodes.
+	 */
+	public abstract int getEdgeCount();
+
+	public abstract boolean isRemoved(int n);
+
+	public abstract int getLabel(int n);
+
+	public abstract int[] getCallees(int n);
+
+	public abstract int getCalleeCount(int n);
+
+	/**
+	 * Returns a new array with the successors of n that are not removed.
+	 */
+	public abstract int[] getSuccessors(int n);
+
+	/**
+	 * Writes all nodes reachable from source to a dot file.
+	 *
+	 * @param filename
+	 * @param source
+	 */
+	public void toDot(String filename, int source) {
+		CallGraphSymbols symbols = CallGraphSymbols.v();
+		int[] done = reachableFrom(source);
+		int doneCount = done.length;
+
+		File fpw = new File(filename);
+		try (PrintWriter pw = new PrintWriter(fpw, "utf-8");) {
+			pw.println("digraph dot {");
+			for (int i = 0; i < doneCount; i++) {
+				String shape = " shape=oval ";
+				pw.println("\t\"" + uniqueLabel(symbols, done[i]) + "\" " + "[label=\""
+						+ symbols.label(getLabel(done[i])) + "\" " + shape + "];\n");
+			}
+			pw.append("\n");
+			for (int i = 0; i < doneCount; i++) {
+				for (int to : getSuccessors(done[i])) {
+					pw.append("\t\"" + uniqueLabel(symbols, done[i]) + "\" -> \""
+							+ uniqueLabel(symbols, to) + "\";\n");
+				}
+			}
+			pw.println("}");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Encodes all nodes reachable from source as a record for a
+	 * {@link GraphArchiveWriter}. The nodes are numbered in breadth-first
+	 * order, so source becomes node 0.
+	 *
+	 * @param source
+	 * @param archive
+	 *            the archive in which the labels are interned
+	 * @return the record.
+	 */
+	public byte[] toArchiveRecord(int source, GraphArchiveWriter archive) {
+		CallGraphSymbols symbols = CallGraphSymbols.v();
+		int[] done = reachableFrom(source);
+		int[] remap = new int[size()];
+		for (int i = 0; i < done.length; i++) {
+			remap[done[i]] = i;
+		}
+		int[] labelIds = new int[done.length];
+		int[][] successors = new int[done.length][];
+		for (int i = 0; i < done.length; i++) {
+			labelIds[i] = archive.intern(symbols.label(getLabel(done[i])));
+			successors[i] = getSuccessors(done[i]);
+			for (int k = 0; k < successors[i].length; k++) {
+				successors[i][k] = remap[successors[i][k]];
+			}
+		}
+		return GraphArchiveWriter.encode(labelIds, successors);
+	}
+
+	/**
+	 * Returns all nodes reachable from source in breadth-first order.
+	 */
+	int[] reachableFrom(int source) {
+		int[] done = new int[16];
+		int doneCount = 0;
+		BitSet seen = new BitSet(size());
+		done[doneCount++] = source;
+		seen.set(source);
+		for (int i = 0; i < doneCount; i++) {
+			for (int suc : getSuccessors(done[i])) {
+				if (!seen.get(suc)) {
+					seen.set(suc);
+					if (doneCount == done.length) {
+						done = Arrays.copyOf(done, done.length * 2);
+					}
+					done[doneCount++] = suc;
+				}
+			}
+		}
+		return Arrays.copyOf(done, doneCount);
+	}
+
+	private String uniqueLabel(CallGraphSymbols symbols, int n) {
+		return symbols.label(getLabel(n)) + "__" + n;
+	}
+}
@@ -0,0 +1,110 @@
+package api_learner.soot;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.SootMethod;
+
+/**
+ * Run-wide tables that map methods and node labels to int ids. The
+ * {@link CompactCallGraph} only stores these ids. Lookups of known
+ * entries do not lock, so the tables can be shared by all
+ * {@link LocalCallGraphBuilder} threads. New entries are added under a
+ * lock; the id to value arrays are only replaced by a grown copy, and an
+ * entry is written before its id is published in the hash map.
+ *
+ * @author schaef
+ */
+public class CallGraphSymbols {
+
+	private final ConcurrentHashMap<SootMethod, Integer> methodIds = new ConcurrentHashMap<SootMethod, Integer>();
+	private volatile SootMethod[] methods = new SootMethod[256];
+	private int methodCount = 0;
+
+	private final ConcurrentHashMap<String, Integer> labelIds = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] labels = new String[256];
+	private int labelCount = 0;
+
+	/**
+	 * Label ids of the methods, i.e., of their signatures.
+	 */
+	private final ConcurrentHashMap<SootMethod, Integer> methodLabelIds = new ConcurrentHashMap<SootMethod, Integer>();
+
+	public int methodId(SootMethod m) {
+		Integer id = methodIds.get(m);
+		if (id != null) {
+			return id;
+		}
+		synchronized (methodIds) {
+			id = methodIds.get(m);
+			if (id == null) {
+				id = methodCount++;
+				if (id == methods.length) {
+					methods = Arrays.copyOf(methods, 2 * id);
+				}
+				methods[id] = m;
+				methodIds.put(m, id);
+			}
+			return id;
+		}
+	}
+
+	public SootMethod method(int id) {
+		return methods[id];
+	}
+
+	public int labelId(String label) {
+		Integer id = labelIds.get(label);
+		if (id != null) {
+			return id;
+		}
+		synchronized (labelIds) {
+			id = labelIds.get(label);
+			if (id == null) {
+				id = labelCount++;
+				if (id == labels.length) {
+					labels = Arrays.copyOf(labels, 2 * id);
+				}
+				labels[id] = label;
+				labelIds.put(label, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Returns the id of the label of a call to m, i.e., of the signature
+	 * of m.
+	 *
+	 * @param m
+	 * @return
+	 */
+	public int labelId(SootMethod m) {
+		Integer id = methodLabelIds.get(m);
+		if (id == null) {
+			id = labelId(m.getSignature());
+			methodLabelIds.put(m, id);
+		}
+		return id;
+	}
+
+	public String label(int id) {
+		return labels[id];
+	}
+
+	private static CallGraphSymbols instance;
+
+	public static synchronized CallGraphSymbols v() {
+		if (null == instance) {
+			instance = new CallGraphSymbols();
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+
+	private CallGraphSymbols() {
+	}
+}
@@ -0,0 +1,100 @@
+package api_learner.soot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+/**
+ * The targets of each call site in the call graph that Soot computed for
+ * -cg. Only explicit calls are kept, not the calls to static initializers,
+ * threads, or finalizers that Soot adds. The map is built once per run
+ * before the {@link LocalCallGraphBuilder} threads start, and is only read
+ * afterwards.
+ *
+ * @author schaef
+ */
+public class CallSiteTargets {
+
+	private static CallSiteTargets instance;
+
+	/**
+	 * @return the targets of the call graph of the Scene, or an empty map if
+	 *         there is none.
+	 */
+	public static synchronized CallSiteTargets v() {
+		if (instance == null) {
+			instance = new CallSiteTargets(null);
+		}
+		return instance;
+	}
+
+	/**
+	 * Builds the map from callGraph for the rest of the run.
+	 */
+	public static synchronized CallSiteTargets init(CallGraph callGraph) {
+		instance = new CallSiteTargets(callGraph);
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+
+	private static final Comparator<SootMethod> SIGNATURE_ORDER = new Comparator<SootMethod>() {
+		@Override
+		public int compare(SootMethod a, SootMethod b) {
+			return a.getSignature().compareTo(b.getSignature());
+		}
+	};
+
+	private final Map<Unit, List<SootMethod>> targets = new HashMap<Unit, List<SootMethod>>();
+
+	private CallSiteTargets(CallGraph callGraph) {
+		if (callGraph == null) {
+			return;
+		}
+		for (Iterator<Edge> it = callGraph.listener(); it.hasNext();) {
+			Edge e = it.next();
+			if (e.srcUnit() == null || !e.isExplicit()) {
+				continue;
+			}
+			List<SootMethod> list = targets.get(e.srcUnit());
+			if (list == null) {
+				list = new ArrayList<SootMethod>();
+				targets.put(e.srcUnit(), list);
+			}
+			if (!list.contains(e.tgt())) {
+				list.add(e.tgt());
+			}
+		}
+		// the order of the edges depends on the points-to sets.
+		for (List<SootMethod> list : targets.values()) {
+			Collections.sort(list, SIGNATURE_ORDER);
+		}
+	}
+
+	/**
+	 * @param u
+	 * @return the targets of the call in u sorted by signature, or null if
+	 *         the call graph has no edge for u.
+	 */
+	public List<SootMethod> get(Unit u) {
+		return targets.get(u);
+	}
+
+	/**
+	 * @return the number of call sites with targets.
+	 */
+	public int size() {
+		return targets.size();
+	}
+}
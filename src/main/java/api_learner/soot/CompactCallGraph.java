@@ -0,0 +1,596 @@
+package api_learner.soot;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Call graph over int node ids. For each node we store a label id, the ids
+ * of the methods it calls, and its successors and predecessors in growable
+ * int arrays. Label and method ids come from {@link CallGraphSymbols}.
+ *
+ * Removing a node only marks it as removed, which takes constant time. All
+ * queries skip removed nodes, so they behave as if the node and its edges
+ * were gone.
+ *
+ * {@link #append} shares the rows of callees with the appended graph and
+ * each graph copies a shared row only before it modifies it. Most appended
+ * nodes keep their callees, so inlining does not copy them.
+ *
+ * @author schaef
+ */
+public class CompactCallGraph extends AbstractCallGraph {
+
+	private static final int[] EMPTY = new int[0];
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int size = 0;
+	private int edgeCount = 0;
+	private int[] labels = new int[INITIAL_CAPACITY];
+	private int[][] callees = new int[INITIAL_CAPACITY][];
+	private int[] calleeCount = new int[INITIAL_CAPACITY];
+	private int[][] succs = new int[INITIAL_CAPACITY][];
+	private int[] succCount = new int[INITIAL_CAPACITY];
+	private int[][] preds = new int[INITIAL_CAPACITY][];
+	private int[] predCount = new int[INITIAL_CAPACITY];
+	private final BitSet removed = new BitSet();
+	/**
+	 * Nodes whose row of callees may be shared with another graph.
+	 */
+	private final BitSet sharedCallees = new BitSet();
+
+	/**
+	 * Adds a new node without callees.
+	 *
+	 * @param label
+	 *            id of the label in {@link CallGraphSymbols}
+	 * @return the id of the new node.
+	 */
+	public int addNode(int label) {
+		ensureCapacity(size + 1);
+		labels[size] = label;
+		callees[size] = EMPTY;
+		succs[size] = EMPTY;
+		preds[size] = EMPTY;
+		return size++;
+	}
+
+	/**
+	 * Number of node ids in use, including removed nodes.
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of edges, including those of removed nodes.
+	 */
+	@Override
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	@Override
+	public boolean isRemoved(int n) {
+		return removed.get(n);
+	}
+
+	public void removeNode(int n) {
+		removed.set(n);
+	}
+
+	@Override
+	public int getLabel(int n) {
+		return labels[n];
+	}
+
+	/**
+	 * Sets the callees of n. The graph takes ownership of the array.
+	 *
+	 * @param n
+	 * @param methodIds
+	 *            ids of the methods in {@link CallGraphSymbols}
+	 */
+	public void setCallees(int n, int[] methodIds) {
+		callees[n] = methodIds;
+		calleeCount[n] = methodIds.length;
+		sharedCallees.clear(n);
+	}
+
+	@Override
+	public int[] getCallees(int n) {
+		if (calleeCount[n] == 0) {
+			return EMPTY;
+		}
+		return Arrays.copyOf(callees[n], calleeCount[n]);
+	}
+
+	@Override
+	public int getCalleeCount(int n) {
+		return calleeCount[n];
+	}
+
+	public void removeCallee(int n, int methodId) {
+		int idx = indexOf(callees[n], calleeCount[n], methodId);
+		if (idx >= 0) {
+			if (sharedCallees.get(n)) {
+				callees[n] = Arrays.copyOf(callees[n], calleeCount[n]);
+				sharedCallees.clear(n);
+			}
+			// keep the order, the first callee is the one in the label.
+			System.arraycopy(callees[n], idx + 1, callees[n], idx, calleeCount[n] - idx - 1);
+			calleeCount[n]--;
+		}
+	}
+
+	public void connect(int from, int to) {
+		if (hasEdge(from, to)) {
+			return;
+		}
+		succs[from] = add(succs[from], succCount[from]++, to);
+		preds[to] = add(preds[to], predCount[to]++, from);
+		edgeCount++;
+	}
+
+	public void disconnect(int from, int to) {
+		if (remove(succs[from], succCount[from], to)) {
+			succCount[from]--;
+			edgeCount--;
+		}
+		if (remove(preds[to], predCount[to], from)) {
+			predCount[to]--;
+		}
+	}
+
+	public boolean hasEdge(int from, int to) {
+		return indexOf(succs[from], succCount[from], to) >= 0;
+	}
+
+	/**
+	 * Returns a new array with the successors of n that are not removed.
+	 */
+	@Override
+	public int[] getSuccessors(int n) {
+		return live(succs[n], succCount[n]);
+	}
+
+	/**
+	 * Returns a new array with the predecessors of n that are not removed.
+	 */
+	public int[] getPredecessors(int n) {
+		return live(preds[n], predCount[n]);
+	}
+
+	/**
+	 * Copies all nodes and edges of other into this graph. Node i of other
+	 * becomes node offset+i.
+	 *
+	 * @param other
+	 * @return the offset of the copied nodes.
+	 */
+	public int append(CompactCallGraph other) {
+		final int offset = size;
+		ensureCapacity(size + other.size);
+		for (int i = 0; i < other.size; i++) {
+			labels[offset + i] = other.labels[i];
+			callees[offset + i] = other.callees[i];
+			calleeCount[offset + i] = other.calleeCount[i];
+			succs[offset + i] = shift(other.succs[i], other.succCount[i], offset);
+			succCount[offset + i] = other.succCount[i];
+			preds[offset + i] = shift(other.preds[i], other.predCount[i], offset);
+			predCount[offset + i] = other.predCount[i];
+			if (other.removed.get(i)) {
+				removed.set(offset + i);
+			}
+		}
+		sharedCallees.set(offset, offset + other.size);
+		other.sharedCallees.set(0, other.size);
+		size += other.size;
+		edgeCount += other.edgeCount;
+		return offset;
+	}
+
+	/**
+	 * Appends a record that {@link #writeTo} wrote, in the same way as
+	 * {@link #append(CompactCallGraph)}.
+	 *
+	 * @param record
+	 *            positioned at the start of the record.
+	 * @return the offset of the copied nodes.
+	 */
+	public int append(IntBuffer record) {
+		final int offset = size;
+		final int count = record.get();
+		ensureCapacity(size + count);
+		edgeCount += record.get();
+		// the nodes are read in order, so skip their positions.
+		record.position(record.position() + count);
+		for (int i = offset; i < offset + count; i++) {
+			labels[i] = record.get();
+			if (record.get() != 0) {
+				removed.set(i);
+			}
+			calleeCount[i] = record.get();
+			callees[i] = readRow(record, calleeCount[i], 0);
+			succCount[i] = record.get();
+			succs[i] = readRow(record, succCount[i], offset);
+			predCount[i] = record.get();
+			preds[i] = readRow(record, predCount[i], offset);
+		}
+		size += count;
+		return offset;
+	}
+
+	/**
+	 * @return the number of ints that {@link #writeTo} writes.
+	 */
+	public int getRecordLength() {
+		int length = 2 + size;
+		for (int i = 0; i < size; i++) {
+			length += 5 + calleeCount[i] + succCount[i] + predCount[i];
+		}
+		return length;
+	}
+
+	/**
+	 * Writes all nodes, including the removed ones, and their edges as a
+	 * record of {@link #getRecordLength} ints: the number of nodes and
+	 * edges, the position of each node in the record, then for each node
+	 * its label, whether it is removed, and its callees, successors, and
+	 * predecessors, each preceded by their count. {@link OffHeapCallGraph}
+	 * reads single nodes by their position.
+	 *
+	 * @param out
+	 */
+	public void writeTo(IntBuffer out) {
+		out.put(size);
+		out.put(edgeCount);
+		int position = 2 + size;
+		for (int i = 0; i < size; i++) {
+			out.put(position);
+			position += 5 + calleeCount[i] + succCount[i] + predCount[i];
+		}
+		for (int i = 0; i < size; i++) {
+			out.put(labels[i]);
+			out.put(removed.get(i) ? 1 : 0);
+			out.put(calleeCount[i]);
+			out.put(callees[i], 0, calleeCount[i]);
+			out.put(succCount[i]);
+			out.put(succs[i], 0, succCount[i]);
+			out.put(predCount[i]);
+			out.put(preds[i], 0, predCount[i]);
+		}
+	}
+
+	/**
+	 * Creates a new graph from the nodes from..to-1 that are not removed.
+	 * Edges to nodes outside of that range are dropped.
+	 *
+	 * @param from
+	 * @param to
+	 * @param remap
+	 *            array of length to-from in which the new id of node
+	 *            from+i is stored at i, or -1 if the node was removed.
+	 * @return the new graph.
+	 */
+	public CompactCallGraph copyRange(int from, int to, int[] remap) {
+		CompactCallGraph copy = new CompactCallGraph();
+		for (int i = from; i < to; i++) {
+			if (removed.get(i)) {
+				remap[i - from] = -1;
+			} else {
+				remap[i - from] = copy.addNode(labels[i]);
+				copy.setCallees(remap[i - from], getCallees(i));
+			}
+		}
+		for (int i = from; i < to; i++) {
+			if (remap[i - from] < 0) {
+				continue;
+			}
+			for (int suc : getSuccessors(i)) {
+				if (suc >= from && suc < to) {
+					copy.connect(remap[i - from], remap[suc - from]);
+				}
+			}
+		}
+		copy.trimToSize();
+		return copy;
+	}
+
+	/**
+	 * Creates a new graph from the nodes reachable from source in which
+	 * bisimilar nodes are merged. Two nodes are bisimilar if they have the
+	 * same label and each successor of one is bisimilar to a successor of
+	 * the other, so the merged graph has the same label sequences from
+	 * source. The partition starts with one block per label and is refined
+	 * by the blocks of the successors until it is stable. Only the
+	 * predecessors of nodes that moved to a new block can be split in the
+	 * next round, so each round only looks at those. A merged node keeps
+	 * the callees of its first node in breadth-first order.
+	 *
+	 * @param source
+	 * @param remap
+	 *            array of length size() in which the new id of each node is
+	 *            stored, or -1 if the node is not reachable.
+	 * @return the new graph, in which source is node 0.
+	 */
+	public CompactCallGraph minimize(int source, int[] remap) {
+		final int[] nodes = reachableFrom(source);
+		Arrays.fill(remap, -1);
+		for (int i = 0; i < nodes.length; i++) {
+			remap[nodes[i]] = i;
+		}
+		int[][] successors = new int[nodes.length][];
+		int[] predCounts = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			successors[i] = getSuccessors(nodes[i]);
+			for (int k = 0; k < successors[i].length; k++) {
+				successors[i][k] = remap[successors[i][k]];
+				predCounts[successors[i][k]]++;
+			}
+		}
+		int[][] predecessors = new int[nodes.length][];
+		for (int i = 0; i < nodes.length; i++) {
+			predecessors[i] = new int[predCounts[i]];
+			predCounts[i] = 0;
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			for (int suc : successors[i]) {
+				predecessors[suc][predCounts[suc]++] = i;
+			}
+		}
+		int[] block = new int[nodes.length];
+		int[] blockSize = new int[nodes.length];
+		Map<Integer, Integer> labelBlocks = new HashMap<Integer, Integer>();
+		for (int i = 0; i < nodes.length; i++) {
+			Integer b = labelBlocks.get(labels[nodes[i]]);
+			if (b == null) {
+				b = labelBlocks.size();
+				labelBlocks.put(labels[nodes[i]], b);
+			}
+			block[i] = b;
+			blockSize[b]++;
+		}
+		int blockCount = labelBlocks.size();
+		// the signature of the nodes of each block that were not touched.
+		Signature[] blockSignatures = new Signature[nodes.length];
+		Signature[] signatures = new Signature[nodes.length];
+		int[] touched = new int[nodes.length];
+		int touchedCount = nodes.length;
+		for (int i = 0; i < nodes.length; i++) {
+			touched[i] = i;
+		}
+		boolean[] isTouched = new boolean[nodes.length];
+		int[] moved = new int[nodes.length];
+		while (touchedCount > 0) {
+			// all signatures of a round refer to the blocks before the round.
+			Map<Integer, List<Integer>> touchedBlocks = new LinkedHashMap<Integer, List<Integer>>();
+			for (int k = 0; k < touchedCount; k++) {
+				int i = touched[k];
+				isTouched[i] = false;
+				signatures[i] = new Signature(successors[i], block);
+				List<Integer> members = touchedBlocks.get(block[i]);
+				if (members == null) {
+					members = new ArrayList<Integer>();
+					touchedBlocks.put(block[i], members);
+				}
+				members.add(i);
+			}
+			int movedCount = 0;
+			for (Entry<Integer, List<Integer>> entry : touchedBlocks.entrySet()) {
+				final int b = entry.getKey();
+				Map<Signature, List<Integer>> groups = new LinkedHashMap<Signature, List<Integer>>();
+				int staying = 0;
+				for (int i : entry.getValue()) {
+					if (signatures[i].equals(blockSignatures[b])) {
+						staying++;
+						continue;
+					}
+					List<Integer> group = groups.get(signatures[i]);
+					if (group == null) {
+						group = new ArrayList<Integer>();
+						groups.put(signatures[i], group);
+					}
+					group.add(i);
+				}
+				// if no node keeps the old signature, the first group keeps b.
+				boolean keepFirst = staying == 0 && entry.getValue().size() == blockSize[b];
+				for (Entry<Signature, List<Integer>> group : groups.entrySet()) {
+					if (keepFirst) {
+						blockSignatures[b] = group.getKey();
+						keepFirst = false;
+						continue;
+					}
+					blockSignatures[blockCount] = group.getKey();
+					blockSize[blockCount] = group.getValue().size();
+					blockSize[b] -= group.getValue().size();
+					for (int i : group.getValue()) {
+						block[i] = blockCount;
+						moved[movedCount++] = i;
+					}
+					blockCount++;
+				}
+			}
+			touchedCount = 0;
+			for (int k = 0; k < movedCount; k++) {
+				for (int pre : predecessors[moved[k]]) {
+					if (!isTouched[pre]) {
+						isTouched[pre] = true;
+						touched[touchedCount++] = pre;
+					}
+				}
+			}
+		}
+		// number the blocks in the order of their first node.
+		int[] blockIds = new int[blockCount];
+		Arrays.fill(blockIds, -1);
+		int blockIdCount = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			if (blockIds[block[i]] < 0) {
+				blockIds[block[i]] = blockIdCount++;
+			}
+			block[i] = blockIds[block[i]];
+		}
+		CompactCallGraph copy = new CompactCallGraph();
+		for (int i = 0; i < nodes.length; i++) {
+			if (block[i] == copy.size()) {
+				copy.addNode(labels[nodes[i]]);
+				copy.setCallees(block[i], getCallees(nodes[i]));
+			}
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			for (int suc : successors[i]) {
+				copy.connect(block[i], block[suc]);
+			}
+			remap[nodes[i]] = block[i];
+		}
+		copy.trimToSize();
+		return copy;
+	}
+
+	/**
+	 * The sorted blocks of the successors of a node, without duplicates.
+	 */
+	private static class Signature {
+		private final int[] blocks;
+		private final int hash;
+
+		Signature(int[] successors, int[] blockOf) {
+			int[] succBlocks = new int[successors.length];
+			for (int k = 0; k < successors.length; k++) {
+				succBlocks[k] = blockOf[successors[k]];
+			}
+			Arrays.sort(succBlocks);
+			int count = 0;
+			for (int k = 0; k < succBlocks.length; k++) {
+				if (k == 0 || succBlocks[k] != succBlocks[k - 1]) {
+					succBlocks[count++] = succBlocks[k];
+				}
+			}
+			this.blocks = Arrays.copyOf(succBlocks, count);
+			this.hash = Arrays.hashCode(this.blocks);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Signature && Arrays.equals(blocks, ((Signature) other).blocks);
+		}
+	}
+
+	/**
+	 * Releases the unused capacity of all arrays.
+	 */
+	public void trimToSize() {
+		labels = Arrays.copyOf(labels, size);
+		callees = Arrays.copyOf(callees, size);
+		calleeCount = Arrays.copyOf(calleeCount, size);
+		succs = Arrays.copyOf(succs, size);
+		succCount = Arrays.copyOf(succCount, size);
+		preds = Arrays.copyOf(preds, size);
+		predCount = Arrays.copyOf(predCount, size);
+		for (int i = 0; i < size; i++) {
+			callees[i] = trim(callees[i], calleeCount[i]);
+			succs[i] = trim(succs[i], succCount[i]);
+			preds[i] = trim(preds[i], predCount[i]);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= labels.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, labels.length * 2);
+		labels = Arrays.copyOf(labels, newCapacity);
+		callees = Arrays.copyOf(callees, newCapacity);
+		calleeCount = Arrays.copyOf(calleeCount, newCapacity);
+		succs = Arrays.copyOf(succs, newCapacity);
+		succCount = Arrays.copyOf(succCount, newCapacity);
+		preds = Arrays.copyOf(preds, newCapacity);
+		predCount = Arrays.copyOf(predCount, newCapacity);
+	}
+
+	private int[] live(int[] row, int count) {
+		int[] res = new int[count];
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			if (!removed.get(row[i])) {
+				res[k++] = row[i];
+			}
+		}
+		return k == count ? res : Arrays.copyOf(res, k);
+	}
+
+	private static int[] add(int[] row, int count, int value) {
+		if (count == row.length) {
+			row = Arrays.copyOf(row, Math.max(2, row.length * 2));
+		}
+		row[count] = value;
+		return row;
+	}
+
+	/**
+	 * Removes value from the first count elements of row by moving the last
+	 * element into its place.
+	 */
+	private static boolean remove(int[] row, int count, int value) {
+		int idx = indexOf(row, count, value);
+		if (idx < 0) {
+			return false;
+		}
+		row[idx] = row[count - 1];
+		return true;
+	}
+
+	private static int indexOf(int[] row, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (row[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int[] shift(int[] row, int count, int offset) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		int[] res = new int[count];
+		for (int i = 0; i < count; i++) {
+			res[i] = row[i] + offset;
+		}
+		return res;
+	}
+
+	private static int[] readRow(IntBuffer record, int count, int offset) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		int[] row = new int[count];
+		record.get(row);
+		if (offset != 0) {
+			for (int k = 0; k < count; k++) {
+				row[k] += offset;
+			}
+		}
+		return row;
+	}
+
+	private static int[] trim(int[] row, int count) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		return row.length == count ? row : Arrays.copyOf(row, count);
+	}
+}
@@ -0,0 +1,138 @@
+package api_learner.soot;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.Hierarchy;
+import soot.Scene;
+import soot.SootClass;
+
+/**
+ * The subclass relation between all subclasses of Throwable in the Scene.
+ * Each of them gets an id and a bitset of the ids of its subclasses. Like
+ * {@link Hierarchy#isClassSubclassOfIncluding}, a class is considered a
+ * subclass of everything if one of its superclasses is phantom.
+ *
+ * The lattice is built once per run. Queries for classes that were not in
+ * the Scene at that time fall back to the {@link Hierarchy} and are cached
+ * per pair of classes. All queries are thread safe.
+ *
+ * @author schaef
+ */
+public class ExceptionLattice {
+
+	private final Map<SootClass, Integer> ids = new HashMap<SootClass, Integer>();
+	private final List<BitSet> subclasses = new ArrayList<BitSet>();
+	private final ConcurrentHashMap<List<SootClass>, Boolean> fallbackCache = new ConcurrentHashMap<List<SootClass>, Boolean>();
+
+	private final SootClass runtimeException;
+	private final SootClass arrayIndexOutOfBoundsException;
+	private final SootClass nullPointerException;
+	private final SootClass classCastException;
+
+	private ExceptionLattice() {
+		Scene scene = Scene.v();
+		SootClass throwable = scene.getSootClass("java.lang.Throwable");
+		runtimeException = scene.getSootClass("java.lang.RuntimeException");
+		arrayIndexOutOfBoundsException = scene.getSootClass("java.lang.ArrayIndexOutOfBoundsException");
+		nullPointerException = scene.getSootClass("java.lang.NullPointerException");
+		classCastException = scene.getSootClass("java.lang.ClassCastException");
+
+		BitSet phantomChains = new BitSet();
+		Map<SootClass, List<SootClass>> chains = new HashMap<SootClass, List<SootClass>>();
+		for (SootClass sc : new ArrayList<SootClass>(scene.getClasses())) {
+			if (sc.isInterface()) {
+				continue;
+			}
+			List<SootClass> chain = new ArrayList<SootClass>();
+			boolean phantom = false;
+			for (SootClass c = sc; c != null; c = c.hasSuperclass() ? c.getSuperclass() : null) {
+				chain.add(c);
+				phantom |= c.isPhantom();
+			}
+			if (phantom || chain.contains(throwable)) {
+				int id = ids.size();
+				ids.put(sc, id);
+				subclasses.add(new BitSet());
+				chains.put(sc, chain);
+				if (phantom) {
+					phantomChains.set(id);
+				}
+			}
+		}
+		for (Map.Entry<SootClass, List<SootClass>> entry : chains.entrySet()) {
+			int id = ids.get(entry.getKey());
+			for (SootClass superclass : entry.getValue()) {
+				Integer superId = ids.get(superclass);
+				if (superId != null) {
+					subclasses.get(superId).set(id);
+				}
+			}
+		}
+		for (BitSet row : subclasses) {
+			row.or(phantomChains);
+		}
+	}
+
+	/**
+	 * Same as {@link Hierarchy#isClassSubclassOfIncluding}, e.g., to check
+	 * if an exception of type child is caught by a trap for parent.
+	 *
+	 * @param child
+	 * @param parent
+	 * @return
+	 */
+	public boolean isSubclassOfIncluding(SootClass child, SootClass parent) {
+		Integer childId = ids.get(child);
+		Integer parentId = ids.get(parent);
+		if (childId != null && parentId != null) {
+			return subclasses.get(parentId).get(childId);
+		}
+		List<SootClass> key = new ArrayList<SootClass>(2);
+		key.add(child);
+		key.add(parent);
+		Boolean res = fallbackCache.get(key);
+		if (res == null) {
+			Hierarchy hierarchy = Scene.v().getActiveHierarchy();
+			// the hierarchy caches lazily and is not thread safe.
+			synchronized (hierarchy) {
+				res = hierarchy.isClassSubclassOfIncluding(child, parent);
+			}
+			fallbackCache.put(key, res);
+		}
+		return res;
+	}
+
+	public SootClass getRuntimeException() {
+		return runtimeException;
+	}
+
+	public SootClass getArrayIndexOutOfBoundsException() {
+		return arrayIndexOutOfBoundsException;
+	}
+
+	public SootClass getNullPointerException() {
+		return nullPointerException;
+	}
+
+	public SootClass getClassCastException() {
+		return classCastException;
+	}
+
+	private static ExceptionLattice instance;
+
+	public static synchronized ExceptionLattice v() {
+		if (null == instance) {
+			instance = new ExceptionLattice();
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+}
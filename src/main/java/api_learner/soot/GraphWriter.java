@@ -0,0 +1,220 @@
+package api_learner.soot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import api_learner.archive.ArchivedGraph;
+import api_learner.archive.DotRenderer;
+import api_learner.archive.GraphArchiveWriter;
+import api_learner.util.RunReport;
+import soot.SootMethod;
+
+/**
+ * Writes the inlined call graphs to a {@link GraphArchiveWriter} archive
+ * while the next graphs are still being built. The graphs are handed to
+ * the writer threads through a bounded queue, so {@link #submit} blocks if
+ * the writers fall behind and only a few graphs are on the heap at any
+ * time.
+ *
+ * Unless dot output is turned off, each record is also rendered to a dot
+ * file with {@link DotRenderer} straight from its encoded form. The file
+ * names are assigned and the mapping from method to file is written in the
+ * order in which the graphs are submitted. If a {@link PdfRenderer} is
+ * given, each dot file is queued for rendering as soon as it is written.
+ *
+ * @author schaef
+ */
+public class GraphWriter {
+
+	public static final String ARCHIVE_FILENAME = "callgraphs.bin";
+	private static final Job END = new Job(null, -1, null, null);
+
+	private final File outputDir;
+	private final boolean writeDot;
+	private final PdfRenderer renderer;
+	private final GraphArchiveWriter archive;
+	private final BlockingQueue<Job> queue;
+	private final List<Thread> writers = new ArrayList<Thread>();
+	private final BufferedWriter mapping;
+	private final Collection<String> dotfileNames = new LinkedList<String>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private int counter = 0;
+
+	private static class Job {
+		final String signature;
+		final int sequence;
+		final File dotFile;
+		final InlinedCallGraph graph;
+
+		Job(String signature, int sequence, File dotFile, InlinedCallGraph graph) {
+			this.signature = signature;
+			this.sequence = sequence;
+			this.dotFile = dotFile;
+			this.graph = graph;
+		}
+	}
+
+	/**
+	 * @param outputDir
+	 * @param threads
+	 *            number of writer threads
+	 * @param writeDot
+	 *            if false, only the archive is written
+	 * @param renderer
+	 *            renders the dot files to pdf, or null
+	 */
+	public GraphWriter(File outputDir, int threads, boolean writeDot, PdfRenderer renderer) {
+		if (renderer != null && !writeDot) {
+			throw new IllegalArgumentException("Rendering pdf files requires dot files.");
+		}
+		this.outputDir = outputDir;
+		this.writeDot = writeDot;
+		this.renderer = renderer;
+		this.queue = new ArrayBlockingQueue<Job>(2 * Math.max(1, threads));
+		File mappingFile = new File(outputDir, DotRenderer.METHOD_TO_DOT_MAPPING_FILENAME);
+		try {
+			this.archive = new GraphArchiveWriter(new File(outputDir, ARCHIVE_FILENAME));
+			// the mapping belongs to the dot files of this run only.
+			this.mapping = writeDot ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mappingFile),
+					"utf-8")) : null;
+		} catch (IOException e) {
+			throw new RuntimeException("Storing failed: " + e.toString());
+		}
+		for (int i = 0; i < Math.max(1, threads); i++) {
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeJobs();
+				}
+			}, "graph-writer-" + i);
+			// do not keep the vm alive if the producer fails.
+			writer.setDaemon(true);
+			writer.start();
+			this.writers.add(writer);
+		}
+	}
+
+	/**
+	 * Queues the graph of m for writing. The graph must not be modified
+	 * afterwards.
+	 *
+	 * @param m
+	 * @param graph
+	 */
+	public void submit(SootMethod m, InlinedCallGraph graph) {
+		checkFailure();
+		int sequence = counter++;
+		File dotFile = null;
+		try {
+			if (writeDot) {
+				String dotFilename = DotRenderer.dotFilename(sequence);
+				dotFile = new File(outputDir, dotFilename);
+				dotfileNames.add(dotFile.getAbsolutePath());
+				mapping.write(m.getSignature());
+				mapping.write("\t");
+				mapping.write(dotFilename);
+				mapping.write("\n");
+			}
+			queue.put(new Job(m.getSignature(), sequence, dotFile, graph));
+		} catch (IOException e) {
+			throw new RuntimeException("Storing failed: " + e.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Storing failed: " + e.toString());
+		}
+	}
+
+	/**
+	 * Waits until all queued graphs are written and rendered, stops the
+	 * writer threads, and finishes the archive.
+	 *
+	 * @return the names of all dot files.
+	 */
+	public Collection<String> close() {
+		try {
+			for (int i = 0; i < writers.size(); i++) {
+				queue.put(END);
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+			if (mapping != null) {
+				mapping.close();
+			}
+			archive.close();
+			RunReport.v().count("bytes.archive", new File(outputDir, ARCHIVE_FILENAME).length());
+			if (renderer != null) {
+				renderer.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Storing failed: " + e.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Storing failed: " + e.toString());
+		}
+		checkFailure();
+		return dotfileNames;
+	}
+
+	private static void countGraph(ArchivedGraph graph) {
+		long edges = 0;
+		for (int n = 0; n < graph.getNodeCount(); n++) {
+			edges += graph.getSuccessorCount(n);
+		}
+		RunReport report = RunReport.v();
+		report.count("graphs.written", 1);
+		report.count("graphs.nodes", graph.getNodeCount());
+		report.count("graphs.edges", edges);
+	}
+
+	private void checkFailure() {
+		if (failure.get() != null) {
+			throw new RuntimeException("Storing failed: " + failure.get().toString());
+		}
+	}
+
+	private void writeJobs() {
+		while (true) {
+			Job job;
+			try {
+				job = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (job == END) {
+				return;
+			}
+			if (failure.get() != null) {
+				// keep draining so submit does not block forever.
+				continue;
+			}
+			try {
+				byte[] record = job.graph.toArchiveRecord(archive);
+				archive.append(job.signature, job.sequence, record);
+				ArchivedGraph graph = new ArchivedGraph(ByteBuffer.wrap(record), 0, archive);
+				countGraph(graph);
+				if (job.dotFile == null) {
+					continue;
+				}
+				DotRenderer.write(graph, job.dotFile);
+				RunReport.v().count("bytes.dot", job.dotFile.length());
+				if (renderer != null) {
+					renderer.render(job.dotFile);
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package api_learner.soot;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import api_learner.archive.GraphArchiveWriter;
+import soot.SootClass;
+import soot.SootMethod;
+
+/**
+ * The call graph of a procedure in which the graphs of the callees have
+ * been inlined. All nodes live in one {@link CompactCallGraph}, which may
+ * be shared with the graphs of the callers while inlining. A graph that is
+ * no longer modified can be moved into the {@link OffHeapGraphStore}, after
+ * which all queries read the {@link OffHeapCallGraph} record in place.
+ *
+ * @author schaef
+ */
+public class InlinedCallGraph {
+
+	private final SootMethod method;
+	/**
+	 * Null if the graph was moved off heap.
+	 */
+	private final CompactCallGraph callGraph;
+	/**
+	 * Null if the graph is on the heap.
+	 */
+	private final OffHeapCallGraph offHeapGraph;
+	private final int source;
+	private final int sink;
+	private final Map<SootClass, Integer> exceptionalSinks;
+
+	public InlinedCallGraph(SootMethod method, CompactCallGraph callGraph, int source, int sink,
+			Map<SootClass, Integer> exceptionalSinks) {
+		this(method, callGraph, null, source, sink, exceptionalSinks);
+	}
+
+	private InlinedCallGraph(SootMethod method, CompactCallGraph callGraph, OffHeapCallGraph offHeapGraph,
+			int source, int sink, Map<SootClass, Integer> exceptionalSinks) {
+		this.method = method;
+		this.callGraph = callGraph;
+		this.offHeapGraph = offHeapGraph;
+		this.source = source;
+		this.sink = sink;
+		this.exceptionalSinks = exceptionalSinks;
+	}
+
+	/**
+	 * Copies the graph into store. The graph must not be modified
+	 * afterwards.
+	 *
+	 * @param store
+	 * @return this graph, with only its handle left on the heap.
+	 */
+	public InlinedCallGraph moveOffHeap(OffHeapGraphStore store) {
+		if (this.callGraph == null) {
+			return this;
+		}
+		OffHeapCallGraph record = new OffHeapCallGraph(store.record(store.store(this.callGraph)));
+		return new InlinedCallGraph(this.method, null, record, this.source, this.sink, this.exceptionalSinks);
+	}
+
+	/**
+	 * Copies the nodes of this graph into target.
+	 *
+	 * @param target
+	 * @return the offset of the copied nodes.
+	 */
+	public int appendNodesTo(CompactCallGraph target) {
+		if (this.callGraph == null) {
+			return target.append(this.offHeapGraph.getRecord());
+		}
+		return target.append(this.callGraph);
+	}
+
+	/**
+	 * Copies this graph into target.
+	 *
+	 * @param target
+	 * @return the graph with the node ids of the copy in target.
+	 */
+	public InlinedCallGraph appendTo(CompactCallGraph target) {
+		int offset = appendNodesTo(target);
+		Map<SootClass, Integer> exSinks = new LinkedHashMap<SootClass, Integer>();
+		for (Entry<SootClass, Integer> entry : this.exceptionalSinks.entrySet()) {
+			exSinks.put(entry.getKey(), entry.getValue() + offset);
+		}
+		return new InlinedCallGraph(this.method, target, this.source + offset,
+				this.sink < 0 ? -1 : this.sink + offset, exSinks);
+	}
+
+	/**
+	 * Copies the nodes from..size-1 of the graph into a new graph. The
+	 * source, sink, and exceptional sinks of this graph must be among them.
+	 *
+	 * @param from
+	 * @return the copy.
+	 */
+	public InlinedCallGraph copyFrom(int from) {
+		CompactCallGraph graph = getCallGraph();
+		int[] remap = new int[graph.size() - from];
+		CompactCallGraph copy = graph.copyRange(from, graph.size(), remap);
+		Map<SootClass, Integer> exSinks = new LinkedHashMap<SootClass, Integer>();
+		for (Entry<SootClass, Integer> entry : this.exceptionalSinks.entrySet()) {
+			exSinks.put(entry.getKey(), remap[entry.getValue() - from]);
+		}
+		return new InlinedCallGraph(this.method, copy, remap[this.source - from],
+				this.sink < 0 ? -1 : remap[this.sink - from], exSinks);
+	}
+
+	/**
+	 * @return a copy of this graph in which bisimilar nodes are merged, see
+	 *         {@link CompactCallGraph#minimize}.
+	 */
+	public InlinedCallGraph minimize() {
+		CompactCallGraph graph = getCallGraph();
+		int[] remap = new int[graph.size()];
+		CompactCallGraph minimized = graph.minimize(this.source, remap);
+		Map<SootClass, Integer> exSinks = new LinkedHashMap<SootClass, Integer>();
+		for (Entry<SootClass, Integer> entry : this.exceptionalSinks.entrySet()) {
+			if (remap[entry.getValue()] >= 0) {
+				exSinks.put(entry.getKey(), remap[entry.getValue()]);
+			}
+		}
+		return new InlinedCallGraph(this.method, minimized, remap[this.source],
+				this.sink < 0 ? -1 : remap[this.sink], exSinks);
+	}
+
+	public SootMethod getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return the graph that can be modified. If it is off heap, this is a
+	 *         new copy on every call, so use {@link #getGraph} to read it.
+	 */
+	public CompactCallGraph getCallGraph() {
+		if (this.callGraph == null) {
+			CompactCallGraph copy = new CompactCallGraph();
+			copy.append(this.offHeapGraph.getRecord());
+			return copy;
+		}
+		return callGraph;
+	}
+
+	/**
+	 * @return the graph for reading, without a copy.
+	 */
+	public AbstractCallGraph getGraph() {
+		return this.callGraph == null ? this.offHeapGraph : this.callGraph;
+	}
+
+	/**
+	 * @return the number of node ids in use, see
+	 *         {@link AbstractCallGraph#size}.
+	 */
+	public int size() {
+		return getGraph().size();
+	}
+
+	/**
+	 * @return the number of edges, see {@link AbstractCallGraph#getEdgeCount}.
+	 */
+	public int getEdgeCount() {
+		return getGraph().getEdgeCount();
+	}
+
+	public int[] getCallees(int n) {
+		return getGraph().getCallees(n);
+	}
+
+	public int getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the sink, or -1 if the procedure never returns normally.
+	 */
+	public int getSink() {
+		return sink;
+	}
+
+	/**
+	 * Its important that we return the original, so we can add stuff to it
+	 * later.
+	 *
+	 * @return
+	 */
+	public Map<SootClass, Integer> getExceptionalSinks() {
+		return exceptionalSinks;
+	}
+
+	/**
+	 * Returns the source, all other nodes that are neither sinks nor
+	 * removed in ascending order, and the sink.
+	 * 
+	 * @return
+	 */
+	public int[] getNodes() {
+		Set<Integer> sinks = new HashSet<Integer>(this.exceptionalSinks.values());
+		sinks.add(this.sink);
+		final AbstractCallGraph graph = getGraph();
+		final int size = graph.size();
+		int[] res = new int[size];
+		int i = 0;
+		res[i++] = this.source;
+		for (int n = 0; n < size; n++) {
+			if (n != this.source && !sinks.contains(n) && !graph.isRemoved(n)) {
+				res[i++] = n;
+			}
+		}
+		if (this.sink >= 0) {
+			res[i++] = this.sink;
+		}
+		return Arrays.copyOf(res, i);
+	}
+
+	public void toDot(String filename) {
+		getGraph().toDot(filename, this.source);
+	}
+
+	/**
+	 * @param archive
+	 * @return the record of this graph for archive.
+	 */
+	public byte[] toArchiveRecord(GraphArchiveWriter archive) {
+		return getGraph().toArchiveRecord(this.source, archive);
+	}
+}
@@ -0,0 +1,332 @@
+package api_learner.soot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import api_learner.util.Log;
+
+/**
+ * Lists the classes of a jar file and the jars on the Class-Path of its
+ * manifest.
+ *
+ * The result is cached per jar. An entry is reused if size and
+ * modification time of the jar did not change, or if they changed but the
+ * SHA-1 of the central directory did not. The central directory is found
+ * and hashed through a memory mapping without reading the rest of the jar.
+ * With {@link #setIndexFile}, the entries are also kept on disk between runs
+ * and checked the same way.
+ *
+ * @author schaef
+ */
+public class JarIndex {
+
+	private static JarIndex instance;
+
+	public static synchronized JarIndex v() {
+		if (instance == null) {
+			instance = new JarIndex();
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+
+	public static final String INDEX_FILENAME = "jars.idx";
+	private static final int INDEX_VERSION = 1;
+
+	private static class Entry {
+		long size;
+		long lastModified;
+		String hash;
+		List<String> classes;
+		List<String> classPath;
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private File indexFile = null;
+	private boolean modified = false;
+
+	/**
+	 * Loads the entries stored in file and keeps file as the place where
+	 * {@link #save} stores them. Entries that are already in memory win.
+	 *
+	 * @param file
+	 */
+	public synchronized void setIndexFile(File file) {
+		if (file.equals(indexFile)) {
+			return;
+		}
+		indexFile = file;
+		if (!file.isFile()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != INDEX_VERSION) {
+				Log.info("Ignoring outdated jar index " + file);
+				return;
+			}
+			Map<String, Entry> stored = new HashMap<String, Entry>();
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				String key = in.readUTF();
+				Entry entry = new Entry();
+				entry.size = in.readLong();
+				entry.lastModified = in.readLong();
+				entry.hash = in.readUTF();
+				entry.classes = readStrings(in);
+				entry.classPath = readStrings(in);
+				stored.put(key, entry);
+			}
+			stored.putAll(entries);
+			entries.putAll(stored);
+		} catch (IOException e) {
+			Log.info("Ignoring broken jar index " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes all entries to the index file, if there is one and an entry
+	 * changed since it was loaded.
+	 */
+	public synchronized void save() {
+		if (indexFile == null || !modified) {
+			return;
+		}
+		File dir = indexFile.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.error("Cannot create directory " + dir);
+			return;
+		}
+		// write a copy first so that a crash never leaves half an index.
+		File tmp = new File(dir, indexFile.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			List<Map.Entry<String, Entry>> hashed = new ArrayList<Map.Entry<String, Entry>>();
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				if (e.getValue().hash != null) {
+					hashed.add(e);
+				}
+			}
+			out.writeInt(INDEX_VERSION);
+			out.writeInt(hashed.size());
+			for (Map.Entry<String, Entry> e : hashed) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().size);
+				out.writeLong(e.getValue().lastModified);
+				out.writeUTF(e.getValue().hash);
+				writeStrings(out, e.getValue().classes);
+				writeStrings(out, e.getValue().classPath);
+			}
+		} catch (IOException e) {
+			Log.error("Cannot write jar index " + tmp + ": " + e.getMessage());
+			tmp.delete();
+			return;
+		}
+		if ((indexFile.exists() && !indexFile.delete()) || !tmp.renameTo(indexFile)) {
+			Log.error("Cannot replace jar index " + indexFile);
+			tmp.delete();
+			return;
+		}
+		modified = false;
+	}
+
+	/**
+	 * @param jar
+	 * @return the names of all classes in jar, in the order of the central
+	 *         directory.
+	 * @throws IOException
+	 */
+	public List<String> getClasses(File jar) throws IOException {
+		return lookup(jar).classes;
+	}
+
+	/**
+	 * Follows the Class-Path entries of the manifest of jar and of the
+	 * manifests of the jars found there.
+	 *
+	 * @param jar
+	 * @return the jars on the class path of jar, breadth first. Jars that
+	 *         do not exist are included but not searched.
+	 * @throws IOException
+	 */
+	public List<File> getClassPath(File jar) throws IOException {
+		List<File> res = new ArrayList<File>();
+		Set<File> done = new HashSet<File>();
+		done.add(jar.getCanonicalFile());
+		List<File> worklist = new LinkedList<File>();
+		worklist.add(jar);
+		while (!worklist.isEmpty()) {
+			File current = worklist.remove(0);
+			for (String item : lookup(current).classPath) {
+				File dependency = new File(current.getParent(), item);
+				if (done.add(dependency.getCanonicalFile())) {
+					res.add(dependency);
+					if (dependency.isFile()) {
+						worklist.add(dependency);
+					}
+				}
+			}
+		}
+		return res;
+	}
+
+	private synchronized Entry lookup(File jar) throws IOException {
+		String key = jar.getCanonicalPath();
+		Entry entry = entries.get(key);
+		long size = jar.length();
+		long lastModified = jar.lastModified();
+		if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+			return entry;
+		}
+		// the hash is only needed to compare with an old entry or to store it.
+		String hash = null;
+		if ((entry != null && entry.hash != null) || indexFile != null) {
+			hash = centralDirectoryHash(jar);
+		}
+		if (entry == null || hash == null || !hash.equals(entry.hash)) {
+			entry = read(jar);
+			entries.put(key, entry);
+		}
+		entry.hash = hash;
+		entry.size = size;
+		entry.lastModified = lastModified;
+		modified = true;
+		return entry;
+	}
+
+	private static String centralDirectoryHash(File jar) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(jar, "r")) {
+			return sha1(mapCentralDirectory(file.getChannel(), jar));
+		}
+	}
+
+	/**
+	 * Finds the end of central directory record and maps the central
+	 * directory.
+	 */
+	private static ByteBuffer mapCentralDirectory(FileChannel channel, File jar) throws IOException {
+		long fileSize = channel.size();
+		// the record is followed by a comment of at most 64k.
+		long tailStart = Math.max(0, fileSize - EOCD_SIZE - 0xffff - ZIP64_LOCATOR_SIZE);
+		ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, tailStart, fileSize - tailStart).order(
+				ByteOrder.LITTLE_ENDIAN);
+		int eocd = -1;
+		for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == EOCD_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0) {
+			throw new IOException("Not a zip file: " + jar);
+		}
+		long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+		long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+		int locator = eocd - ZIP64_LOCATOR_SIZE;
+		if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+			ByteBuffer zip64 = channel.map(FileChannel.MapMode.READ_ONLY, tail.getLong(locator + 8), 56).order(
+					ByteOrder.LITTLE_ENDIAN);
+			if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+				throw new IOException("Broken zip64 directory: " + jar);
+			}
+			directorySize = zip64.getLong(40);
+			directoryOffset = zip64.getLong(48);
+		}
+		if (directoryOffset + directorySize > fileSize || directorySize > Integer.MAX_VALUE) {
+			throw new IOException("Broken central directory: " + jar);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize).order(
+				ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static Entry read(File jar) throws IOException {
+		List<String> classes = new ArrayList<String>();
+		List<String> classPath = new ArrayList<String>();
+		try (JarFile jarFile = new JarFile(jar)) {
+			Enumeration<JarEntry> jarEntries = jarFile.entries();
+			while (jarEntries.hasMoreElements()) {
+				String entryName = jarEntries.nextElement().getName();
+				if (entryName.endsWith(".class")) {
+					classes.add(entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.'));
+				}
+			}
+			Manifest manifest = jarFile.getManifest();
+			Attributes mainAttributes = manifest == null ? null : manifest.getMainAttributes();
+			String items = mainAttributes == null ? null : mainAttributes.getValue(Attributes.Name.CLASS_PATH);
+			if (items != null) {
+				for (String classPathItem : items.split(" ")) {
+					if (classPathItem.endsWith(".jar")) {
+						classPath.add(classPathItem);
+					}
+				}
+			}
+		}
+		Entry entry = new Entry();
+		entry.classes = Collections.unmodifiableList(classes);
+		entry.classPath = Collections.unmodifiableList(classPath);
+		return entry;
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<String> res = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			res.add(in.readUTF());
+		}
+		return Collections.unmodifiableList(res);
+	}
+
+	private static String sha1(ByteBuffer data) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString());
+		}
+		digest.update(data);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
@@ -1,21 +1,18 @@
 package api_learner.soot;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.Stack;
 
 import soot.Body;
-import soot.Hierarchy;
+import soot.FastHierarchy;
 import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
@@ -35,104 +32,111 @@ import soot.jimple.StaticInvokeExpr;
 import soot.jimple.Stmt;
 import soot.jimple.ThrowStmt;
 import soot.toolkits.graph.CompleteUnitGraph;
-import soot.toolkits.graph.DirectedGraph;
 import soot.toolkits.scalar.ForwardFlowAnalysis;
 import api_learner.Options;
 
+/**
+ * Builds the local call graph of a body. The flow facts are the nodes of
+ * the call graph that may have been visited last, as bit sets over the node
+ * ids, which are dense for each body.
+ */
+public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, BitSet> {
 
-public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<InterprocdurcalCallGraphNode>> {
-
-	private Map<Unit, InterprocdurcalCallGraphNode> nodes = new HashMap<Unit, InterprocdurcalCallGraphNode>();
-	private InterprocdurcalCallGraphNode source;
-	private InterprocdurcalCallGraphNode sink;
-	private final Map<SootClass, InterprocdurcalCallGraphNode> exceptionalSinks = new HashMap<SootClass, InterprocdurcalCallGraphNode>();
-		
-	/**
-	 * copy constructor
-	 */
-	private LocalCallGraphBuilder(DirectedGraph<Unit> graph, Map<Unit, InterprocdurcalCallGraphNode> nodes, InterprocdurcalCallGraphNode source, InterprocdurcalCallGraphNode sink, Map<SootClass, InterprocdurcalCallGraphNode> exSinks) {
-		super(graph);
-		Map<InterprocdurcalCallGraphNode, InterprocdurcalCallGraphNode> clones = new HashMap<InterprocdurcalCallGraphNode, InterprocdurcalCallGraphNode>();
-		//first clone all nodes
-		for (Entry<Unit, InterprocdurcalCallGraphNode> entry : nodes.entrySet()) {
-			InterprocdurcalCallGraphNode clone = entry.getValue().duplicate();
-			clones.put(entry.getValue(), clone);
-			this.nodes.put(entry.getKey(), clone);
-		}
-		clones.put(source, source.duplicate());
-		if (sink!=null) {
-			clones.put(sink, sink.duplicate());
-		}
-				
-		for (Entry<SootClass, InterprocdurcalCallGraphNode> entry : exSinks.entrySet()) {
-			InterprocdurcalCallGraphNode clonedSink = entry.getValue().duplicate();
-			exceptionalSinks.put(entry.getKey(), clonedSink);
-			clones.put(entry.getValue(), clonedSink);
-		}
-		
-		//now connect the cloned nodes.
-		for (Entry<InterprocdurcalCallGraphNode, InterprocdurcalCallGraphNode> entry : clones.entrySet()) {
-			for (InterprocdurcalCallGraphNode succ : entry.getKey().getSuccessors()) {					
-				entry.getValue().connectTo(clones.get(succ));
-			}
-		}
-		this.source = clones.get(source);
-		if (sink!=null) this.sink = clones.get(sink);
-	}
-	
-	public LocalCallGraphBuilder duplicate() {
-		return new LocalCallGraphBuilder(this.graph, this.nodes, this.source, this.sink, this.exceptionalSinks);
-	}
+	private final CallGraphSymbols symbols = CallGraphSymbols.v();
+	private final Namespace namespace = Namespace.v();
+	private final ExceptionLattice exceptions = ExceptionLattice.v();
+	private final CallSiteTargets callSiteTargets = CallSiteTargets.v();
+	private final VirtualDispatchCache dispatchCache = VirtualDispatchCache.v();
+	private final CompactCallGraph callGraph = new CompactCallGraph();
+	// linked collections keep the iteration order independent of hash codes.
+	private final Map<Unit, Integer> nodes = new LinkedHashMap<Unit, Integer>();
+	private final int source;
+	private int sink;
+	private final Map<SootClass, Integer> exceptionalSinks = new LinkedHashMap<SootClass, Integer>();
 
 	private Body body = null;
+	private final TrapIndex trapIndex;
+	private final Set<Unit> heads;
 	
 	public LocalCallGraphBuilder(Body body) {
-		super(new CompleteUnitGraph(body));
+		this(body, Options.v().isSparseCfg());
+	}
+
+	/**
+	 * @param body
+	 * @param sparse
+	 *            if true, the analysis runs on a {@link SparseUnitGraph}.
+	 */
+	public LocalCallGraphBuilder(Body body, boolean sparse) {
+		super(sparse ? new SparseUnitGraph(new CompleteUnitGraph(body)) : new CompleteUnitGraph(body));
 		this.body = body;
+		this.trapIndex = new TrapIndex(body);
+		this.heads = new HashSet<Unit>(this.graph.getHeads());
 		
-		this.source = new InterprocdurcalCallGraphNode();
-		this.source.setLabel("source");		
-		this.sink = new InterprocdurcalCallGraphNode();
-		this.sink.setLabel("sink");
+		this.source = callGraph.addNode(symbols.labelId("source"));
+		this.sink = callGraph.addNode(symbols.labelId("sink"));
 		
 		this.doAnalysis();
 		// generate a unique sink.
-		if (this.sink.predessors.isEmpty()) {
-			this.sink=null;
+		if (callGraph.getPredecessors(this.sink).length == 0) {
+			callGraph.removeNode(this.sink);
+			this.sink = -1;
 		}
+		callGraph.trimToSize();
 	}
 	
-	public InterprocdurcalCallGraphNode getSource() {
+	/**
+	 * The graph must not be modified. Use {@link CompactCallGraph#append}
+	 * to get a copy.
+	 * 
+	 * @return
+	 */
+	public CompactCallGraph getCallGraph() {
+		return this.callGraph;
+	}
+
+	public int getSource() {
 		return this.source;
 	}
 
-	public InterprocdurcalCallGraphNode getSink() {
+	/**
+	 * @return the sink, or -1 if the procedure never returns normally.
+	 */
+	public int getSink() {
 		return this.sink;
 	}
 
+	public Map<SootClass, Integer> getExceptionalSinks() {
+		return exceptionalSinks;
+	}
+
 	/**
-	 * Its important that we return the original, so we can add stuff to it later.
+	 * The result of the analysis without the state of the flow analysis.
+	 * 
 	 * @return
 	 */
-	public Map<SootClass, InterprocdurcalCallGraphNode> getExceptionalSinks() {
-		return exceptionalSinks;
+	public InlinedCallGraph getLocalCallGraph() {
+		return new InlinedCallGraph(this.body.getMethod(), this.callGraph, this.source, this.sink,
+				this.exceptionalSinks);
 	}
-	
-	
-	public Set<InterprocdurcalCallGraphNode> getNodes() {
-		Set<InterprocdurcalCallGraphNode> res = new HashSet<InterprocdurcalCallGraphNode>();
-		res.add(source);
-		res.addAll(this.nodes.values());
-		if (sink!=null) {
-			res.add(sink);
-		}
-		return res;
+
+	/**
+	 * True if we build a local call graph for m. These are the methods with
+	 * an active body, and the concrete methods of application classes, whose
+	 * graphs may have been restored from the {@link LocalCallGraphCache}
+	 * without loading their body.
+	 * 
+	 * @param m
+	 * @return
+	 */
+	public static boolean hasBody(SootMethod m) {
+		return m.hasActiveBody() || (m.isConcrete() && m.getDeclaringClass().isApplicationClass());
 	}
 	
 	@Override
-	protected void flowThrough(Set<InterprocdurcalCallGraphNode> in, Unit u, Set<InterprocdurcalCallGraphNode> out) {
-		if (this.graph.getHeads().contains(u)) {
-			in.add(this.source);
+	protected void flowThrough(BitSet in, Unit u, BitSet out) {
+		if (this.heads.contains(u)) {
+			in.set(this.source);
 		}
 				
 		Set<SootMethod> callees = findCallees(u);
@@ -140,9 +144,7 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 			// then in == out
 			out.clear();
 			if (u instanceof ReturnVoidStmt || u instanceof ReturnStmt) {
-				for (InterprocdurcalCallGraphNode pre : in) {
-					pre.connectTo(this.sink);
-				}
+				connectAll(in, this.sink);
 				return;
 			} 
 			
@@ -155,23 +157,26 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 			
 			addPossibleExceptionSinks(in, u);
 			
-			out.addAll(in);
+			out.or(in);
 			return;
 			
 		} else {
-			InterprocdurcalCallGraphNode n;
+			Integer n;
 			if (this.nodes.containsKey(u)) {
 				n = this.nodes.get(u);
 			} else {
-				n = new InterprocdurcalCallGraphNode();
-				n.setCallees(callees);
+				n = callGraph.addNode(symbols.labelId(callees.iterator().next()));
+				int[] calleeIds = new int[callees.size()];
+				int i = 0;
+				for (SootMethod callee : callees) {
+					calleeIds[i++] = symbols.methodId(callee);
+				}
+				callGraph.setCallees(n, calleeIds);
 				this.nodes.put(u, n);
 			}
-			for (InterprocdurcalCallGraphNode pre : in) {
-				pre.connectTo(n);
-			}
+			connectAll(in, n);
 			out.clear();
-			out.add(n);
+			out.set(n);
 			
 			//Connect n to potential uncaught exceptional termination.
 			//TODO: This is a crude over-approximation 
@@ -179,7 +184,7 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 			for (SootMethod sm : callees) {
 				thrownExceptions.addAll(sm.getExceptions());
 			}
-			thrownExceptions.add(Scene.v().getSootClass("java.lang.RuntimeException"));
+			thrownExceptions.add(exceptions.getRuntimeException());
 			for (SootClass ex : thrownExceptions) {
 				connectUncaughtToExceptionalSink(out, u, ex);
 			}
@@ -188,97 +193,94 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 		}
 	}
 
-	private void addPossibleExceptionSinks(Set<InterprocdurcalCallGraphNode> in, Unit u) {
+	/**
+	 * False if u passes the flow facts through unchanged.
+	 * 
+	 * @param u
+	 * @return
+	 */
+	static boolean mayChangeFlow(Unit u) {
+		Stmt s = (Stmt) u;
+		return s.containsInvokeExpr() || s instanceof ReturnVoidStmt || s instanceof ReturnStmt
+				|| s instanceof ThrowStmt || s.containsArrayRef()
+				|| (s.containsFieldRef() && s.getFieldRef() instanceof InstanceFieldRef)
+				|| (s instanceof DefinitionStmt && ((DefinitionStmt) s).getRightOp() instanceof CastExpr);
+	}
+
+	private void addPossibleExceptionSinks(BitSet in, Unit u) {
 		Stmt s = (Stmt)u;
 		if (s.containsArrayRef()) {			
 			//TODO: check if this is always safe.
-			connectUncaughtToExceptionalSink(in, u, Scene.v().getSootClass("java.lang.ArrayIndexOutOfBoundsException"));
+			connectUncaughtToExceptionalSink(in, u, exceptions.getArrayIndexOutOfBoundsException());
 		}
 		
 		if (s.containsFieldRef() && s.getFieldRef() instanceof InstanceFieldRef) {
 			//TODO: check if this is always safe.
-			connectUncaughtToExceptionalSink(in, u, Scene.v().getSootClass("java.lang.NullPointerException"));
+			connectUncaughtToExceptionalSink(in, u, exceptions.getNullPointerException());
 		}
 		
 		if (s instanceof DefinitionStmt && ((DefinitionStmt)s).getRightOp() instanceof CastExpr) {
 			//TODO: check if this is always safe.
-			connectUncaughtToExceptionalSink(in, u, Scene.v().getSootClass("java.lang.ClassCastException"));	
+			connectUncaughtToExceptionalSink(in, u, exceptions.getClassCastException());	
 		}
 		
 	}
 	
-	private void connectUncaughtToExceptionalSink(Set<InterprocdurcalCallGraphNode> nodes, Unit u, SootClass exception) {
-		Hierarchy hierarchy = Scene.v().getActiveHierarchy();
+	private void connectUncaughtToExceptionalSink(BitSet nodes, Unit u, SootClass exception) {
 		boolean caught = false;
-		for (Trap trap : getTrapsGuardingUnit(u, body)) {
-			if (hierarchy.isClassSubclassOfIncluding(exception, trap.getException())) {
+		for (Trap trap : getTrapsGuardingUnit(u)) {
+			if (exceptions.isSubclassOfIncluding(exception, trap.getException())) {
 				caught = true; break;
 			}
 		}
 		if (!caught) {
 			if (!exceptionalSinks.containsKey(exception)) {		
-				InterprocdurcalCallGraphNode node = new InterprocdurcalCallGraphNode();
-				node.setLabel("Exception "+exception.getName());
+				int node = callGraph.addNode(symbols.labelId("Exception "+exception.getName()));
 				exceptionalSinks.put(exception, node);
 			}
-			InterprocdurcalCallGraphNode exceptionSink = exceptionalSinks.get(exception);
-								
-			for (InterprocdurcalCallGraphNode pre : nodes) {
-				pre.connectTo(exceptionSink);
-			}
-			
+			connectAll(nodes, exceptionalSinks.get(exception));
+		}
+	}
+
+	private void connectAll(BitSet preds, int to) {
+		for (int pre = preds.nextSetBit(0); pre >= 0; pre = preds.nextSetBit(pre + 1)) {
+			callGraph.connect(pre, to);
 		}
 	}
 	
 	
 	
 	
-	protected List<Trap> getTrapsGuardingUnit(Unit u, Body b) {
-		List<Trap> result = new LinkedList<Trap>();
-		for (Trap t : b.getTraps()) {
-			Iterator<Unit> it = b.getUnits().iterator(t.getBeginUnit(), t.getEndUnit());
-			while (it.hasNext()) {
-				if (u.equals(it.next())) {
-					result.add(t);
-				}
-			}
-		}
-		return result;
+	protected List<Trap> getTrapsGuardingUnit(Unit u) {
+		return trapIndex.getTrapsGuardingUnit(u);
 	}
 	
 	
-	public void removeNode(InterprocdurcalCallGraphNode n) {
-		Map<Unit, InterprocdurcalCallGraphNode> tmp = new HashMap<Unit, InterprocdurcalCallGraphNode>(this.nodes);
-		
-		for (Entry<Unit, InterprocdurcalCallGraphNode> entry : tmp.entrySet() ){
-			if (entry.getValue()==n) {
-				this.nodes.remove(entry.getKey());
-			}
-		}
-	}
-	
 	@Override
-	protected void copy(Set<InterprocdurcalCallGraphNode> from, Set<InterprocdurcalCallGraphNode> to) {
+	protected void copy(BitSet from, BitSet to) {
 		to.clear();
-		to.addAll(from);
+		to.or(from);
 	}
 
 	@Override
-	protected void merge(Set<InterprocdurcalCallGraphNode> in1, Set<InterprocdurcalCallGraphNode> in2, Set<InterprocdurcalCallGraphNode> out) {
-		out.clear();
-		out.addAll(in1);
-		out.addAll(in2);
+	protected void merge(BitSet in1, BitSet in2, BitSet out) {
+		if (out != in1 && out != in2) {
+			out.clear();
+		}
+		out.or(in1);
+		out.or(in2);
 	}
 
 	@Override
-	protected Set<InterprocdurcalCallGraphNode> newInitialFlow() {
-		Set<InterprocdurcalCallGraphNode> init = new HashSet<InterprocdurcalCallGraphNode>();
-//		init.add(this.source);
+	protected BitSet newInitialFlow() {
+		BitSet init = new BitSet();
+//		init.set(this.source);
 		return init;
 	}
 
 	private Set<SootMethod> findCallees(Unit u) {
-		Set<SootMethod> callees = new HashSet<SootMethod>();
+		// keep the insertion order, the first callee determines the label.
+		Set<SootMethod> callees = new LinkedHashSet<SootMethod>();
 		
 //		if (this.icfg!=null) {
 //			//if we have the icfg, its simple.
@@ -290,14 +292,17 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 			Stmt s = (Stmt) u;
 			if (s.containsInvokeExpr()) {
 				InvokeExpr invoke = s.getInvokeExpr();
-				if (invoke instanceof DynamicInvokeExpr) {
+				List<SootMethod> targets = this.callSiteTargets.get(s);
+				if (targets != null) {
+					callees.addAll(filterTargets(invoke.getMethod(), targets));
+				} else if (invoke instanceof DynamicInvokeExpr) {
 					DynamicInvokeExpr ivk = (DynamicInvokeExpr) invoke;
 					// TODO: 
 					System.err.println("no idea how to handle DynamicInvoke: " + ivk);
 					callees.add(ivk.getMethod());
 				} else if (invoke instanceof StaticInvokeExpr) {					
 					StaticInvokeExpr ivk = (StaticInvokeExpr) invoke;
-					if (ivk.getMethod().hasActiveBody() || isInterestingProcedure(ivk.getMethod())) {
+					if (hasBody(ivk.getMethod()) || isInterestingProcedure(ivk.getMethod())) {
 						callees.add(ivk.getMethod());	
 					} else {
 						// do nothing
@@ -314,30 +319,50 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 
 	
 	private boolean isInterestingProcedure(SootMethod callee) {
-		SootClass sc = callee.getDeclaringClass();
-		if (Options.v().getNamespace()!=null && !Options.v().getNamespace().isEmpty()) {
-			String fullClassName = callee.getDeclaringClass().getPackageName() + "." + callee.getDeclaringClass().getName();
-			if (fullClassName.contains(Options.v().getNamespace())) {
-				return true;
-			} else {
-				//do nothing
-			}
-		} else {			
-			if (sc.isJavaLibraryClass()) {
-				//if no namespace is given, we consider any jdk call interesting.
-				//just for debugging
-				return true;
+		return namespace.matches(callee.getDeclaringClass());
+	}
+
+	/**
+	 * Keeps the targets from the call graph of Soot that we have a body
+	 * for or that are interesting. As without a call graph, an interesting
+	 * callee without body comes first and determines the label, even if
+	 * Soot only found its implementations. A callee with body is only kept
+	 * if it is a target.
+	 */
+	private Set<SootMethod> filterTargets(SootMethod callee, List<SootMethod> targets) {
+		Set<SootMethod> res = new LinkedHashSet<SootMethod>();
+		if (hasBody(callee) ? targets.contains(callee) : isInterestingProcedure(callee)) {
+			res.add(callee);
+		}
+		for (SootMethod target : targets) {
+			if (hasBody(target) || isInterestingProcedure(target)) {
+				res.add(target);
 			}
 		}
-		return false;
+		return res;
 	}
 	
-	private Set<SootMethod> resolveVirtualCall(Stmt s, Value base,
+	private static final Comparator<SootClass> CLASS_NAME_ORDER = new Comparator<SootClass>() {
+		@Override
+		public int compare(SootClass a, SootClass b) {
+			return a.getName().compareTo(b.getName());
+		}
+	};
+
+	Set<SootMethod> resolveVirtualCall(Stmt s, Value base,
 			SootMethod callee) {
-		Set<SootMethod> res = new HashSet<SootMethod>();
+		Set<SootMethod> res = dispatchCache.get(callee);
+		if (res == null) {
+			res = dispatchCache.put(callee, computeVirtualCallTargets(callee));
+		}
+		return res;
+	}
+
+	private Set<SootMethod> computeVirtualCallTargets(SootMethod callee) {
+		Set<SootMethod> res = new LinkedHashSet<SootMethod>();
 		SootClass sc = callee.getDeclaringClass();
 		
-		if (callee.hasActiveBody()) {
+		if (hasBody(callee)) {
 			//TODO: and add all overriding methods
 			res.add(callee);
 		} else {
@@ -350,13 +375,20 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 			}
 		}
 		
-		Collection<SootClass> possibleClasses;
-		if (sc.isInterface()) {
-			possibleClasses = Scene.v().getFastHierarchy()
-					.getAllImplementersOfInterface(sc);
-		} else {
-			possibleClasses = Scene.v().getFastHierarchy().getSubclassesOf(sc);
+		List<SootClass> possibleClasses;
+		FastHierarchy fastHierarchy = Scene.v().getFastHierarchy();
+		// the hierarchy caches lazily and is not thread safe.
+		synchronized (fastHierarchy) {
+			if (sc.isInterface()) {
+				possibleClasses = new ArrayList<SootClass>(
+						fastHierarchy.getAllImplementersOfInterface(sc));
+			} else {
+				possibleClasses = new ArrayList<SootClass>(
+						fastHierarchy.getSubclassesOf(sc));
+			}
 		}
+		// the hierarchy returns hash sets, sort them to get a stable order.
+		Collections.sort(possibleClasses, CLASS_NAME_ORDER);
 		for (SootClass sub : possibleClasses) {
 			if (sub.resolvingLevel() < SootClass.SIGNATURES) {
 				// Log.error("Not checking subtypes of " + sub.getName());
@@ -375,40 +407,7 @@ public class LocalCallGraphBuilder extends ForwardFlowAnalysis<Unit, Set<Interpr
 	}	
 	
 	public void toDot(String filename) {
-		//first collect all reachable nodes.
-		Stack<InterprocdurcalCallGraphNode> todo = new Stack<InterprocdurcalCallGraphNode>();
-		todo.push(source);
-		Set<InterprocdurcalCallGraphNode> done = new HashSet<InterprocdurcalCallGraphNode>();
-		while (!todo.isEmpty()) {
-			InterprocdurcalCallGraphNode current = todo.pop();
-			done.add(current);
-			for (InterprocdurcalCallGraphNode suc : current.successors) {
-				if (!todo.contains(suc) && !done.contains(suc)) {
-					todo.push(suc);
-				}
-			}
-		}
-		
-		File fpw = new File(filename);
-		try (PrintWriter pw = new PrintWriter(fpw, "utf-8");) {
-			pw.println("digraph dot {");
-			for (InterprocdurcalCallGraphNode n : done) {
-				String shape = " shape=oval ";
-				pw.println("\t\"" + n.getUniqueLabel() + "\" " + "[label=\""
-						+ n.getLabel() + "\" " + shape + "];\n");
-			}
-			pw.append("\n");
-			for (InterprocdurcalCallGraphNode from : done) {
-				for (InterprocdurcalCallGraphNode to : from.getSuccessors()) {
-					pw.append("\t\"" + from.getUniqueLabel() + "\" -> \""
-							+ to.getUniqueLabel() + "\";\n");					
-				}
-				
-			}
-			pw.println("}");
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		this.callGraph.toDot(filename, this.source);
 	}	
 	
 }
\ No newline at end of file
@@ -0,0 +1,477 @@
+package api_learner.soot;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import soot.Body;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Trap;
+import soot.Unit;
+import soot.jimple.Stmt;
+import soot.jimple.ThrowStmt;
+import api_learner.Options;
+import api_learner.soot.SootRunner.CallgraphAlgorithm;
+import api_learner.util.Log;
+
+/**
+ * On-disk cache of the local call graphs of all methods of an application
+ * class. There is one file per class that stores the hash of the class file,
+ * the options that were used, the supertypes of the class, the classes that
+ * its bodies refer to, and the local call graphs of its methods. Labels and
+ * callees are stored as strings because the ids in {@link CallGraphSymbols}
+ * change from run to run.
+ *
+ * An entry is only used if the hash of its class file and the options did
+ * not change. The local graph of a method depends on the class hierarchy of
+ * the classes it refers to, e.g., through virtual dispatch or caught
+ * exceptions. So if a class is added or removed, or if its supertypes or
+ * method signatures change, we also drop the entries of all classes that
+ * refer to it or to one of its supertypes. If only the bodies of a class
+ * change, only the class itself is rebuilt.
+ *
+ * With a call graph of Soot (-cg), the targets of a call site depend on
+ * the whole program, so any change of the input drops all entries.
+ *
+ * @author schaef
+ */
+public class LocalCallGraphCache {
+
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".lcg";
+
+	private final File cacheDir;
+	private final String optionsKey;
+	private final Map<String, String> classHashes;
+	private final Set<String> validClasses = new HashSet<String>();
+
+	/**
+	 * @param cacheDir
+	 *            the directory that holds the cache files.
+	 * @param input
+	 *            the jar file or class folder that is analyzed.
+	 */
+	public LocalCallGraphCache(File cacheDir, String input) {
+		this.cacheDir = cacheDir;
+		this.classHashes = hashClassFiles(new File(input));
+		this.optionsKey = optionsKey(this.classHashes);
+	}
+
+	/**
+	 * Reads the headers of all cache files and decides which of them can be
+	 * used. Must be called after Soot loaded the classes.
+	 */
+	public void load() {
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			Log.error("Cannot create cache directory " + cacheDir);
+			return;
+		}
+		Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+		Set<String> changed = new HashSet<String>(classHashes.keySet());
+		Set<String> affected = new HashSet<String>();
+		File[] files = cacheDir.listFiles();
+		for (File f : files == null ? new File[0] : files) {
+			if (!f.getName().endsWith(SUFFIX)) {
+				continue;
+			}
+			String className = f.getName().substring(0, f.getName().length() - SUFFIX.length());
+			boolean stale = !classHashes.containsKey(className);
+			try (DataInputStream in = open(f)) {
+				String classHash = in.readUTF();
+				String signatureHash = in.readUTF();
+				List<String> supertypes = readStrings(in);
+				if (classHash.equals(classHashes.get(className))) {
+					changed.remove(className);
+					references.put(className, new HashSet<String>(readStrings(in)));
+				} else if (classHashes.containsKey(className) && Scene.v().containsClass(className)
+						&& signatureHash.equals(signatureHash(Scene.v().getSootClass(className)))) {
+					// only the bodies changed, so no other class is affected.
+					changed.remove(className);
+				} else {
+					// the signatures changed or the class no longer exists.
+					affected.add(className);
+					affected.addAll(supertypes);
+				}
+			} catch (IOException e) {
+				// not a valid entry, so the class is rebuilt.
+				stale = true;
+			}
+			if (stale && !f.delete()) {
+				Log.error("Cannot delete cache file " + f);
+			}
+		}
+		for (String className : changed) {
+			affected.add(className);
+			if (Scene.v().containsClass(className)) {
+				collectSupertypes(Scene.v().getSootClass(className), affected);
+			}
+		}
+		for (Entry<String, Set<String>> entry : references.entrySet()) {
+			boolean dependent = false;
+			for (String ref : entry.getValue()) {
+				dependent |= affected.contains(ref);
+			}
+			if (!dependent) {
+				validClasses.add(entry.getKey());
+			}
+		}
+		Log.info("Local call graph cache: " + validClasses.size() + " of " + classHashes.size()
+				+ " classes are up to date.");
+	}
+
+	/**
+	 * Restores the local call graphs of all methods of sc.
+	 *
+	 * @param sc
+	 * @return the graphs, or null if sc has to be rebuilt.
+	 */
+	public Map<SootMethod, InlinedCallGraph> restore(SootClass sc) {
+		if (!validClasses.contains(sc.getName())) {
+			return null;
+		}
+		try (DataInputStream in = open(fileFor(sc.getName()))) {
+			in.readUTF();
+			in.readUTF();
+			readStrings(in);
+			readStrings(in);
+			Map<SootMethod, InlinedCallGraph> graphs = new LinkedHashMap<SootMethod, InlinedCallGraph>();
+			int methods = in.readInt();
+			for (int i = 0; i < methods; i++) {
+				SootMethod m = grabMethod(in.readUTF());
+				graphs.put(m, readGraph(in, m));
+			}
+			return graphs;
+		} catch (IOException e) {
+			Log.info("Rebuilding " + sc.getName() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the local call graphs of all methods of sc. The methods must
+	 * still have their active bodies to find the classes they refer to.
+	 *
+	 * @param sc
+	 * @param graphs
+	 */
+	public void store(SootClass sc, Map<SootMethod, InlinedCallGraph> graphs) {
+		String classHash = classHashes.get(sc.getName());
+		if (classHash == null) {
+			return;
+		}
+		Set<String> supertypes = new LinkedHashSet<String>();
+		collectSupertypes(sc, supertypes);
+		Set<String> references = new LinkedHashSet<String>();
+		for (SootMethod m : graphs.keySet()) {
+			collectReferences(m.getActiveBody(), references);
+		}
+		File f = fileFor(sc.getName());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+			out.writeInt(VERSION);
+			out.writeUTF(optionsKey);
+			out.writeUTF(classHash);
+			out.writeUTF(signatureHash(sc));
+			writeStrings(out, supertypes);
+			writeStrings(out, references);
+			out.writeInt(graphs.size());
+			for (Entry<SootMethod, InlinedCallGraph> entry : graphs.entrySet()) {
+				out.writeUTF(entry.getKey().getSignature());
+				writeGraph(out, entry.getValue());
+			}
+		} catch (IOException e) {
+			Log.error("Cannot write cache file " + f + ": " + e.getMessage());
+			f.delete();
+		}
+	}
+
+	private DataInputStream open(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		if (in.readInt() != VERSION || !in.readUTF().equals(optionsKey)) {
+			in.close();
+			throw new IOException("outdated cache file " + f);
+		}
+		return in;
+	}
+
+	private File fileFor(String className) {
+		return new File(cacheDir, className + SUFFIX);
+	}
+
+	private void writeGraph(DataOutputStream out, InlinedCallGraph g) throws IOException {
+		CallGraphSymbols symbols = CallGraphSymbols.v();
+		AbstractCallGraph cg = g.getGraph();
+		out.writeInt(cg.size());
+		for (int n = 0; n < cg.size(); n++) {
+			out.writeBoolean(cg.isRemoved(n));
+			out.writeUTF(symbols.label(cg.getLabel(n)));
+			int[] callees = cg.getCallees(n);
+			out.writeInt(callees.length);
+			for (int callee : callees) {
+				out.writeUTF(symbols.method(callee).getSignature());
+			}
+			int[] succs = cg.getSuccessors(n);
+			out.writeInt(succs.length);
+			for (int suc : succs) {
+				out.writeInt(suc);
+			}
+		}
+		out.writeInt(g.getSource());
+		out.writeInt(g.getSink());
+		out.writeInt(g.getExceptionalSinks().size());
+		for (Entry<SootClass, Integer> entry : g.getExceptionalSinks().entrySet()) {
+			out.writeUTF(entry.getKey().getName());
+			out.writeInt(entry.getValue());
+		}
+	}
+
+	private InlinedCallGraph readGraph(DataInputStream in, SootMethod m) throws IOException {
+		CallGraphSymbols symbols = CallGraphSymbols.v();
+		CompactCallGraph cg = new CompactCallGraph();
+		int size = in.readInt();
+		boolean[] removed = new boolean[size];
+		int[][] succs = new int[size][];
+		for (int n = 0; n < size; n++) {
+			removed[n] = in.readBoolean();
+			cg.addNode(symbols.labelId(in.readUTF()));
+			int[] callees = new int[in.readInt()];
+			for (int i = 0; i < callees.length; i++) {
+				callees[i] = symbols.methodId(grabMethod(in.readUTF()));
+			}
+			cg.setCallees(n, callees);
+			succs[n] = new int[in.readInt()];
+			for (int i = 0; i < succs[n].length; i++) {
+				succs[n][i] = in.readInt();
+			}
+		}
+		for (int n = 0; n < size; n++) {
+			for (int suc : succs[n]) {
+				cg.connect(n, suc);
+			}
+			if (removed[n]) {
+				cg.removeNode(n);
+			}
+		}
+		cg.trimToSize();
+		int source = in.readInt();
+		int sink = in.readInt();
+		Map<SootClass, Integer> exceptionalSinks = new LinkedHashMap<SootClass, Integer>();
+		int exceptions = in.readInt();
+		for (int i = 0; i < exceptions; i++) {
+			String className = in.readUTF();
+			if (!Scene.v().containsClass(className)) {
+				throw new IOException("unknown class " + className);
+			}
+			exceptionalSinks.put(Scene.v().getSootClass(className), in.readInt());
+		}
+		return new InlinedCallGraph(m, cg, source, sink, exceptionalSinks);
+	}
+
+	private static SootMethod grabMethod(String signature) throws IOException {
+		SootMethod m = Scene.v().grabMethod(signature);
+		if (m == null) {
+			throw new IOException("unknown method " + signature);
+		}
+		return m;
+	}
+
+	private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<String> res = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			res.add(in.readUTF());
+		}
+		return res;
+	}
+
+	private static void collectSupertypes(SootClass sc, Set<String> supertypes) {
+		if (sc.hasSuperclass() && supertypes.add(sc.getSuperclass().getName())) {
+			collectSupertypes(sc.getSuperclass(), supertypes);
+		}
+		for (SootClass i : sc.getInterfaces()) {
+			if (supertypes.add(i.getName())) {
+				collectSupertypes(i, supertypes);
+			}
+		}
+	}
+
+	/**
+	 * Hash of everything that other classes can see of sc: its supertypes and
+	 * the signatures, modifiers, and exceptions of its methods.
+	 */
+	private static String signatureHash(SootClass sc) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(sc.getModifiers());
+		if (sc.hasSuperclass()) {
+			sb.append(" extends ").append(sc.getSuperclass().getName());
+		}
+		for (SootClass i : sc.getInterfaces()) {
+			sb.append(" implements ").append(i.getName());
+		}
+		List<String> methods = new ArrayList<String>();
+		for (SootMethod m : sc.getMethods()) {
+			StringBuilder ms = new StringBuilder();
+			ms.append(m.getModifiers()).append(' ').append(m.getSubSignature());
+			for (SootClass ex : m.getExceptions()) {
+				ms.append(" throws ").append(ex.getName());
+			}
+			methods.add(ms.toString());
+		}
+		Collections.sort(methods);
+		for (String ms : methods) {
+			sb.append('\n').append(ms);
+		}
+		try {
+			return hash(new ByteArrayInputStream(sb.toString().getBytes("utf-8")));
+		} catch (IOException e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+	/**
+	 * Collects the classes whose hierarchy the local call graph of body
+	 * depends on.
+	 */
+	private static void collectReferences(Body body, Set<String> references) {
+		for (Unit u : body.getUnits()) {
+			Stmt s = (Stmt) u;
+			if (s.containsInvokeExpr()) {
+				SootMethod callee = s.getInvokeExpr().getMethod();
+				references.add(callee.getDeclaringClass().getName());
+				for (SootClass ex : callee.getExceptions()) {
+					references.add(ex.getName());
+				}
+			}
+			if (s instanceof ThrowStmt) {
+				references.add(((RefType) ((ThrowStmt) s).getOp().getType()).getClassName());
+			}
+		}
+		for (Trap t : body.getTraps()) {
+			references.add(t.getException().getName());
+		}
+	}
+
+	/**
+	 * The options that change the local call graphs. With a call graph of
+	 * Soot, this includes a hash of all class files of the input.
+	 */
+	private static String optionsKey(Map<String, String> classHashes) {
+		Options options = Options.v();
+		String key = "namespace=" + options.getNamespace() + ";cg=" + options.getCallGraphAlgorithm() + ";cp="
+				+ options.getClasspath();
+		if (options.getCallGraphAlgorithm() != CallgraphAlgorithm.None) {
+			StringBuilder sb = new StringBuilder();
+			for (Entry<String, String> entry : new TreeMap<String, String>(classHashes).entrySet()) {
+				sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+			}
+			try {
+				key += ";input=" + hash(new ByteArrayInputStream(sb.toString().getBytes("utf-8")));
+			} catch (IOException e) {
+				throw new RuntimeException(e.toString());
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Computes the SHA-1 of all class files in a jar file or class folder.
+	 *
+	 * @param input
+	 * @return map from class name to hash.
+	 */
+	private static Map<String, String> hashClassFiles(File input) {
+		Map<String, String> hashes = new HashMap<String, String>();
+		try {
+			if (input.isDirectory()) {
+				hashClassFolder(input, "", hashes);
+			} else if (input.getName().endsWith(".jar")) {
+				try (JarFile jar = new JarFile(input)) {
+					Enumeration<JarEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						JarEntry entry = entries.nextElement();
+						if (entry.getName().endsWith(".class")) {
+							try (InputStream in = jar.getInputStream(entry)) {
+								hashes.put(className(entry.getName()), hash(in));
+							}
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			Log.error("Cannot hash " + input + ": " + e.getMessage());
+			hashes.clear();
+		}
+		return hashes;
+	}
+
+	private static void hashClassFolder(File dir, String prefix, Map<String, String> hashes) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			if (f.isDirectory()) {
+				hashClassFolder(f, prefix + f.getName() + "/", hashes);
+			} else if (f.getName().endsWith(".class")) {
+				try (InputStream in = new FileInputStream(f)) {
+					hashes.put(className(prefix + f.getName()), hash(in));
+				}
+			}
+		}
+	}
+
+	private static String className(String path) {
+		return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+	}
+
+	private static String hash(InputStream in) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString());
+		}
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			digest.update(buffer, 0, read);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
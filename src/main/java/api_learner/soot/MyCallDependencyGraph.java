@@ -30,9 +30,13 @@ package api_learner.soot;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +54,12 @@ import soot.util.MultiMap;
  * application to another method B in the application. 
  * We use this graph to figure out the order of inlinings we have to do when constructing the
  * actual call graph.
+ * 
+ * The graph is condensed into its strongly connected components (Tarjan). The
+ * components are ordered reverse-topologically, i.e., callees come before their
+ * callers. Methods that are only called from inside of a cycle never show up as
+ * heads, so all members of components without callers from other components are
+ * returned as entries.
  */
 public class MyCallDependencyGraph implements DirectedGraph<SootMethod> {
 
@@ -60,13 +70,17 @@ public class MyCallDependencyGraph implements DirectedGraph<SootMethod> {
 	protected List<SootMethod> tails;
 	protected int size;
 
+	protected Map<SootMethod, Integer> componentIds;
+	protected List<List<SootMethod>> components;
+	protected List<SootMethod> entries;
+
 	public Set<SootMethod> getNodes() {
 		return this.nodes;
 	}
 
 	public MyCallDependencyGraph(Map<SootMethod, Set<SootMethod>> callGraphMap) {
 		
-		this.nodes = new HashSet<SootMethod>(callGraphMap.keySet());
+		this.nodes = new LinkedHashSet<SootMethod>(callGraphMap.keySet());
 		MultiMap<SootMethod, SootMethod> s = new HashMultiMap<SootMethod, SootMethod>();
 		MultiMap<SootMethod, SootMethod> p = new HashMultiMap<SootMethod, SootMethod>();
 
@@ -99,6 +113,126 @@ public class MyCallDependencyGraph implements DirectedGraph<SootMethod> {
 		}
 
 		this.size = this.nodes.size();		
+		computeComponents();
+	}
+
+	/**
+	 * Iterative version of Tarjan's algorithm, so deep call chains do not
+	 * overflow the stack. It emits the components in reverse topological
+	 * order.
+	 */
+	private void computeComponents() {
+		this.componentIds = new HashMap<SootMethod, Integer>();
+		this.components = new ArrayList<List<SootMethod>>();
+		Map<SootMethod, Integer> index = new HashMap<SootMethod, Integer>();
+		Map<SootMethod, Integer> lowlink = new HashMap<SootMethod, Integer>();
+		Deque<SootMethod> tarjanStack = new ArrayDeque<SootMethod>();
+		Set<SootMethod> onStack = new HashSet<SootMethod>();
+		Deque<SootMethod> dfsStack = new ArrayDeque<SootMethod>();
+		Deque<Iterator<SootMethod>> dfsIterators = new ArrayDeque<Iterator<SootMethod>>();
+
+		for (SootMethod root : this.nodes) {
+			if (index.containsKey(root)) {
+				continue;
+			}
+			index.put(root, index.size());
+			lowlink.put(root, index.get(root));
+			tarjanStack.push(root);
+			onStack.add(root);
+			dfsStack.push(root);
+			dfsIterators.push(this.succ.get(root).iterator());
+			while (!dfsStack.isEmpty()) {
+				SootMethod v = dfsStack.peek();
+				Iterator<SootMethod> it = dfsIterators.peek();
+				if (it.hasNext()) {
+					SootMethod w = it.next();
+					if (!index.containsKey(w)) {
+						index.put(w, index.size());
+						lowlink.put(w, index.get(w));
+						tarjanStack.push(w);
+						onStack.add(w);
+						dfsStack.push(w);
+						dfsIterators.push(this.succ.get(w).iterator());
+					} else if (onStack.contains(w)) {
+						lowlink.put(v, Math.min(lowlink.get(v), index.get(w)));
+					}
+					continue;
+				}
+				dfsStack.pop();
+				dfsIterators.pop();
+				if (!dfsStack.isEmpty()) {
+					SootMethod u = dfsStack.peek();
+					lowlink.put(u, Math.min(lowlink.get(u), lowlink.get(v)));
+				}
+				if (lowlink.get(v).equals(index.get(v))) {
+					List<SootMethod> component = new LinkedList<SootMethod>();
+					SootMethod w;
+					do {
+						w = tarjanStack.pop();
+						onStack.remove(w);
+						this.componentIds.put(w, this.components.size());
+						component.add(0, w);
+					} while (w != v);
+					this.components.add(component);
+				}
+			}
+		}
+
+		this.entries = new LinkedList<SootMethod>(this.heads);
+		for (List<SootMethod> component : this.components) {
+			boolean calledFromOutside = false;
+			for (SootMethod m : component) {
+				calledFromOutside |= isCalledFromOtherComponent(m);
+			}
+			if (!calledFromOutside) {
+				for (SootMethod m : component) {
+					if (!this.pred.get(m).isEmpty()) {
+						// all others are heads already.
+						this.entries.add(m);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param m
+	 * @return the id of the strongly connected component of m, or -1 if m
+	 *         is not in the graph.
+	 */
+	public int getComponentId(SootMethod m) {
+		Integer id = this.componentIds.get(m);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * The strongly connected components in reverse topological order. The
+	 * id of each component is its position in this list.
+	 */
+	public List<List<SootMethod>> getComponents() {
+		return this.components;
+	}
+
+	/**
+	 * The heads and all members of cycles that are not called from outside
+	 * of their cycle.
+	 */
+	public List<SootMethod> getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * True if m is called from a method in another strongly connected
+	 * component.
+	 */
+	public boolean isCalledFromOtherComponent(SootMethod m) {
+		int id = getComponentId(m);
+		for (SootMethod caller : this.pred.get(m)) {
+			if (getComponentId(caller) != id) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 
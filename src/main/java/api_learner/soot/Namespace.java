@@ -0,0 +1,129 @@
+package api_learner.soot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.SootClass;
+import api_learner.Options;
+
+/**
+ * Decides which library classes the analysis is interested in. The
+ * namespace is a comma separated list of package or class name prefixes,
+ * e.g., <code>java.io,-java.io.ObjectInputStream</code>. A prefix that
+ * starts with a minus excludes the classes below it. The longest prefix
+ * that matches a class decides. Prefixes are matched at whole name
+ * segments, and nested classes belong to their outer class.
+ *
+ * A class that no prefix matches is only interesting if there are no
+ * including prefixes and the class belongs to the JDK. So without a
+ * namespace, all JDK classes are interesting.
+ *
+ * The prefixes are compiled into a trie once per run and the result is
+ * cached for each class.
+ *
+ * @author schaef
+ */
+public class Namespace {
+
+	private static Namespace instance;
+
+	public static synchronized Namespace v() {
+		if (instance == null) {
+			instance = new Namespace(Options.v().getNamespace());
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+
+	private static class Node {
+		final Map<String, Node> children = new HashMap<String, Node>();
+		/**
+		 * True if a prefix that ends here includes, false if it excludes,
+		 * null if no prefix ends here.
+		 */
+		Boolean verdict = null;
+	}
+
+	private final Node root = new Node();
+	private boolean hasIncludes = false;
+	private final ConcurrentHashMap<SootClass, Boolean> verdicts = new ConcurrentHashMap<SootClass, Boolean>();
+
+	/**
+	 * @param namespace
+	 *            the value of -namespace, or null.
+	 */
+	public Namespace(String namespace) {
+		if (namespace == null) {
+			return;
+		}
+		for (String pattern : namespace.split(",")) {
+			pattern = pattern.trim();
+			boolean include = !pattern.startsWith("-");
+			if (!include) {
+				pattern = pattern.substring(1).trim();
+			}
+			// a trailing dot or wildcard as in java.io. or java.io.* means the same.
+			while (pattern.endsWith(".") || pattern.endsWith("*")) {
+				pattern = pattern.substring(0, pattern.length() - 1);
+			}
+			if (pattern.isEmpty()) {
+				continue;
+			}
+			Node node = root;
+			for (String segment : segments(pattern)) {
+				Node child = node.children.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.children.put(segment, child);
+				}
+				node = child;
+			}
+			node.verdict = include;
+			hasIncludes |= include;
+		}
+	}
+
+	/**
+	 * @param sc
+	 * @return true if calls into sc are reported.
+	 */
+	public boolean matches(SootClass sc) {
+		Boolean res = verdicts.get(sc);
+		if (res == null) {
+			res = lookup(sc.getName());
+			if (res == null) {
+				// if no namespace is given, we consider any jdk call interesting.
+				res = !hasIncludes && sc.isJavaLibraryClass();
+			}
+			verdicts.put(sc, res);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the verdict of the longest prefix of className, or null if
+	 *         no prefix matches.
+	 */
+	private Boolean lookup(String className) {
+		Boolean res = null;
+		Node node = root;
+		for (String segment : segments(className)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				break;
+			}
+			if (node.verdict != null) {
+				res = node.verdict;
+			}
+		}
+		return res;
+	}
+
+	private static String[] segments(String name) {
+		return name.split("[.$]");
+	}
+}
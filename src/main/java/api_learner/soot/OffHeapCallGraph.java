@@ -0,0 +1,102 @@
+package api_learner.soot;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a record that {@link CompactCallGraph#writeTo} wrote
+ * into the {@link OffHeapGraphStore}. All queries read the record in place,
+ * so nothing but the view itself is on the heap. Like
+ * {@link CompactCallGraph}, the queries skip removed nodes.
+ *
+ * The view only uses absolute reads, so it can be shared by threads.
+ *
+ * @author schaef
+ */
+public class OffHeapCallGraph extends AbstractCallGraph {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final IntBuffer record;
+
+	/**
+	 * @param record
+	 *            starts with the record.
+	 */
+	public OffHeapCallGraph(IntBuffer record) {
+		this.record = record;
+	}
+
+	/**
+	 * @return a new buffer positioned at the start of the record, e.g., for
+	 *         {@link CompactCallGraph#append(IntBuffer)}.
+	 */
+	public IntBuffer getRecord() {
+		return record.duplicate();
+	}
+
+	@Override
+	public int size() {
+		return record.get(0);
+	}
+
+	@Override
+	public int getEdgeCount() {
+		return record.get(1);
+	}
+
+	@Override
+	public boolean isRemoved(int n) {
+		return record.get(node(n) + 1) != 0;
+	}
+
+	@Override
+	public int getLabel(int n) {
+		return record.get(node(n));
+	}
+
+	@Override
+	public int getCalleeCount(int n) {
+		return record.get(node(n) + 2);
+	}
+
+	@Override
+	public int[] getCallees(int n) {
+		final int callees = node(n) + 2;
+		return read(callees + 1, record.get(callees));
+	}
+
+	@Override
+	public int[] getSuccessors(int n) {
+		final int callees = node(n) + 2;
+		final int succs = callees + 1 + record.get(callees);
+		final int count = record.get(succs);
+		int[] res = new int[count];
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			int suc = record.get(succs + 1 + i);
+			if (!isRemoved(suc)) {
+				res[k++] = suc;
+			}
+		}
+		return k == count ? res : Arrays.copyOf(res, k);
+	}
+
+	/**
+	 * @return the position of node n in the record.
+	 */
+	private int node(int n) {
+		return record.get(2 + n);
+	}
+
+	private int[] read(int position, int count) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		int[] res = new int[count];
+		for (int i = 0; i < count; i++) {
+			res[i] = record.get(position + i);
+		}
+		return res;
+	}
+}
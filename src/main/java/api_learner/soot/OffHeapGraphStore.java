@@ -0,0 +1,135 @@
+package api_learner.soot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import api_learner.util.RunReport;
+
+/**
+ * Keeps frozen call graphs outside of the Java heap, as records of
+ * {@link CompactCallGraph#writeTo} in a scratch file that is memory mapped
+ * in segments. The operating system pages the records in and out, so the
+ * graphs are not limited by -Xmx and the garbage collector never scans
+ * them. The store only appends; its space is released and the file is
+ * deleted when it is closed by {@link #resetInstance}, i.e., at the start of
+ * the next run or when {@link api_learner.Main} exits.
+ *
+ * The store is thread safe. Records are complete before their address is
+ * returned, and reading a record does not modify the segments.
+ *
+ * @author schaef
+ */
+public class OffHeapGraphStore {
+
+	private static final int SEGMENT_BYTES = 64 << 20;
+
+	private static OffHeapGraphStore instance;
+
+	public static synchronized OffHeapGraphStore v() {
+		if (instance == null) {
+			instance = new OffHeapGraphStore();
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		if (instance != null) {
+			instance.close();
+		}
+		instance = null;
+	}
+
+	private final File file;
+	private final RandomAccessFile scratch;
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private long mappedBytes = 0;
+	private int segmentUsed = 0;
+
+	private OffHeapGraphStore() {
+		try {
+			this.file = File.createTempFile("apilearner_graphs", ".bin");
+			this.scratch = new RandomAccessFile(this.file, "rw");
+			this.channel = this.scratch.getChannel();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create the off-heap store: " + e.toString());
+		}
+	}
+
+	/**
+	 * Copies graph into the store.
+	 *
+	 * @param graph
+	 * @return the address of the record.
+	 */
+	public synchronized long store(CompactCallGraph graph) {
+		final long bytes = 4L * graph.getRecordLength();
+		if (bytes > Integer.MAX_VALUE) {
+			throw new RuntimeException("Graph with " + graph.size() + " nodes is too large for the off-heap store.");
+		}
+		if (segments.isEmpty() || segmentUsed + bytes > segments.get(segments.size() - 1).capacity()) {
+			map(Math.max(SEGMENT_BYTES, (int) bytes));
+		}
+		ByteBuffer view = segments.get(segments.size() - 1).duplicate().order(ByteOrder.nativeOrder());
+		view.position(segmentUsed);
+		graph.writeTo(view.asIntBuffer());
+		long address = ((long) (segments.size() - 1) << 32) | segmentUsed;
+		segmentUsed += (int) bytes;
+		RunReport.v().count("off-heap.graphs", 1);
+		RunReport.v().count("off-heap.bytes", bytes);
+		return address;
+	}
+
+	/**
+	 * @param address
+	 *            returned by {@link #store}
+	 * @return a new view on the record at address.
+	 */
+	public synchronized IntBuffer record(long address) {
+		if (!channel.isOpen()) {
+			throw new IllegalStateException("The off-heap store is closed.");
+		}
+		ByteBuffer view = segments.get((int) (address >>> 32)).duplicate();
+		view.position((int) address);
+		return view.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * @return the number of mapped bytes.
+	 */
+	public synchronized long getMappedBytes() {
+		return mappedBytes;
+	}
+
+	private void map(int bytes) {
+		try {
+			segments.add(channel.map(MapMode.READ_WRITE, mappedBytes, bytes));
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot grow the off-heap store: " + e.toString());
+		}
+		mappedBytes += bytes;
+		segmentUsed = 0;
+	}
+
+	private synchronized void close() {
+		segments.clear();
+		try {
+			channel.close();
+			scratch.close();
+		} catch (IOException e) {
+			// the file is deleted anyway.
+		}
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}
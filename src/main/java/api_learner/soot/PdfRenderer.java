@@ -0,0 +1,186 @@
+package api_learner.soot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import api_learner.util.Log;
+
+/**
+ * Renders dot files to pdf with graphviz on a pool of worker threads, each
+ * of which runs one renderer process at a time. At most twice as many
+ * files as there are workers can be queued; {@link #render} blocks
+ * otherwise. Processes that take longer than the timeout are killed.
+ * Failures do not stop the rendering and are summarized in {@link #close}.
+ *
+ * @author schaef
+ */
+public class PdfRenderer {
+
+	private static final int MAX_REPORTED_FAILURES = 10;
+
+	// do not keep the vm alive if the producer fails.
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = Executors.defaultThreadFactory().newThread(r);
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final String dotBinary;
+	private final long timeoutSeconds;
+	private final ExecutorService workers;
+	private final ScheduledExecutorService watchdog;
+	private final Semaphore slots;
+	private final AtomicInteger rendered = new AtomicInteger();
+	private final Collection<String> failures = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * @param dotBinary
+	 *            path of the graphviz dot binary
+	 * @param threads
+	 *            number of concurrent renderer processes
+	 * @param timeoutSeconds
+	 *            time after which a renderer process is killed
+	 */
+	public PdfRenderer(String dotBinary, int threads, long timeoutSeconds) {
+		this.dotBinary = dotBinary;
+		this.timeoutSeconds = timeoutSeconds;
+		this.workers = Executors.newFixedThreadPool(Math.max(1, threads), DAEMON_THREADS);
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(DAEMON_THREADS);
+		this.slots = new Semaphore(2 * Math.max(1, threads));
+	}
+
+	/**
+	 * Queues dotFile for rendering to a pdf file next to it.
+	 *
+	 * @param dotFile
+	 */
+	public void render(final File dotFile) {
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Rendering failed: " + e.toString());
+		}
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					renderNow(dotFile);
+				} finally {
+					slots.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for all queued files and logs a summary of the failures.
+	 *
+	 * @return the number of files that could not be rendered.
+	 */
+	public int close() {
+		workers.shutdown();
+		try {
+			while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+				Log.info("Waiting for the pdf renderer ...");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			watchdog.shutdownNow();
+		}
+		Log.info("Rendered " + rendered.get() + " pdf files.");
+		if (!failures.isEmpty()) {
+			Log.error("Could not render " + failures.size() + " pdf files:");
+			int i = 0;
+			for (String failure : failures) {
+				if (i++ == MAX_REPORTED_FAILURES) {
+					Log.error("\t...");
+					break;
+				}
+				Log.error("\t" + failure);
+			}
+		}
+		return failures.size();
+	}
+
+	private void renderNow(File dotFile) {
+		String pdffileName = dotFile.getAbsolutePath().replace(".dot", ".pdf");
+		ProcessBuilder pb = new ProcessBuilder(dotBinary, "-Tpdf", dotFile.getAbsolutePath(), "-o", pdffileName);
+		pb.redirectErrorStream(true);
+		/*
+		 * Write the output to a file instead of a pipe. Otherwise, reading
+		 * it could block after a timeout if the renderer started child
+		 * processes that still hold the pipe.
+		 */
+		File log = null;
+		final Process p;
+		try {
+			log = File.createTempFile("dot", ".log");
+			pb.redirectOutput(log);
+			p = pb.start();
+		} catch (IOException e) {
+			failures.add(dotFile.getName() + ": " + e.getMessage());
+			if (log != null) {
+				log.delete();
+			}
+			return;
+		}
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		ScheduledFuture<?> killer = watchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+				timedOut.set(true);
+				p.destroy();
+			}
+		}, timeoutSeconds, TimeUnit.SECONDS);
+		try {
+			int exitCode = p.waitFor();
+			killer.cancel(false);
+			if (timedOut.get()) {
+				failures.add(dotFile.getName() + ": timed out after " + timeoutSeconds + "s");
+			} else if (exitCode != 0) {
+				failures.add(dotFile.getName() + ": exit code " + exitCode + " " + readAll(log).trim());
+			} else {
+				rendered.incrementAndGet();
+			}
+		} catch (IOException e) {
+			failures.add(dotFile.getName() + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			killer.cancel(false);
+			p.destroy();
+			Thread.currentThread().interrupt();
+		} finally {
+			log.delete();
+		}
+	}
+
+	private static String readAll(File f) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new FileInputStream(f)) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return out.toString("utf-8");
+	}
+}
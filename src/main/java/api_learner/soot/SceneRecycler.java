@@ -0,0 +1,233 @@
+package api_learner.soot;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import api_learner.soot.SootRunner.CallgraphAlgorithm;
+import api_learner.util.Log;
+
+/**
+ * Keeps the basic classes of the Soot scene (the JDK classes that Soot
+ * loads for every input) between runs in the same vm.
+ *
+ * The first run with a new class path starts from a fresh scene, and
+ * {@link SootRunner} reports to {@link #basicClassesLoaded} once the basic
+ * classes are loaded. That state is the baseline. Before each later run
+ * with the same class path, {@link #prepare} restores the baseline: it
+ * removes all classes that were added since, and those basic classes that
+ * were resolved further, together with all classes that point to a removed
+ * class. What the analysis sees depends on how far classes are resolved,
+ * so a run on a restored scene gives the same result as a run on a fresh
+ * one.
+ *
+ * Runs that build a whole-program call graph or analyze an apk always
+ * start from a fresh scene. Soot cannot forget basic classes, so the
+ * classes of a jar input are looked up again in later runs and end up as
+ * phantom classes there unless the new input contains them.
+ *
+ * @author schaef
+ */
+public class SceneRecycler {
+
+	private static SceneRecycler instance;
+
+	public static SceneRecycler v() {
+		if (instance == null) {
+			instance = new SceneRecycler();
+		}
+		return instance;
+	}
+
+	public static void resetInstance() {
+		instance = null;
+	}
+
+	private String loadedKey = null;
+	private boolean recordBaseline = false;
+	/**
+	 * Resolving level and number of supertypes and members of each class
+	 * of the baseline.
+	 */
+	private Map<SootClass, int[]> baseline = null;
+	private int reused = 0;
+
+	/**
+	 * Prepares Soot for a run on input.
+	 *
+	 * @param input
+	 *            jar file, class folder, or apk
+	 * @param classPath
+	 *            additional class path, or null
+	 * @param cga
+	 * @return true if the scene of the previous run is reused.
+	 */
+	public boolean prepare(String input, String classPath, CallgraphAlgorithm cga) {
+		String key = libraryKey(input, classPath, cga);
+		boolean reuse = key != null && key.equals(loadedKey) && baseline != null;
+		if (reuse) {
+			restoreBaseline();
+			reused++;
+		} else {
+			soot.G.reset();
+			baseline = null;
+			recordBaseline = key != null;
+		}
+		loadedKey = key;
+		return reuse;
+	}
+
+	/**
+	 * Called by {@link SootRunner} after the basic classes are loaded. In
+	 * the first run with a class path, this records the baseline.
+	 *
+	 * @param inputClasses
+	 *            names of the classes of the input
+	 */
+	public void basicClassesLoaded(Set<String> inputClasses) {
+		if (!recordBaseline) {
+			return;
+		}
+		recordBaseline = false;
+		baseline = new HashMap<SootClass, int[]>();
+		for (SootClass sc : Scene.v().getClasses()) {
+			if (!inputClasses.contains(sc.getName())) {
+				baseline.put(sc, state(sc));
+			}
+		}
+	}
+
+	/**
+	 * Called by {@link SootRunner} once all classes of the input are
+	 * loaded. From here on, Soot checks resolving levels again, as it does
+	 * in a run on a fresh scene.
+	 */
+	public void necessaryClassesLoaded() {
+		soot.options.Options.v().set_ignore_resolving_levels(false);
+	}
+
+	/**
+	 * Forces a reset before the next run, e.g., if the last run failed and
+	 * left the scene in an unknown state.
+	 */
+	public void invalidate() {
+		loadedKey = null;
+		recordBaseline = false;
+		baseline = null;
+	}
+
+	/**
+	 * @return the number of runs that reused the scene.
+	 */
+	public int getReused() {
+		return reused;
+	}
+
+	/**
+	 * Returns a string that identifies the libraries of a run, or null if
+	 * the scene of the run must not be reused.
+	 */
+	private String libraryKey(String input, String classPath, CallgraphAlgorithm cga) {
+		if (input == null || cga != CallgraphAlgorithm.None || input.endsWith(".apk")) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(classPath);
+		if (input.endsWith(".jar")) {
+			// the jars from the manifest end up on the soot class path.
+			for (File dependency : new SootRunner().extractClassPath(new File(input))) {
+				sb.append(File.pathSeparatorChar);
+				sb.append(dependency.getAbsolutePath());
+			}
+		}
+		return sb.toString();
+	}
+
+	private void restoreBaseline() {
+		/*
+		 * Soot only checks resolving levels once the scene is done
+		 * resolving. A fresh scene is not done while the input is loaded,
+		 * but a reused one already is, and the resolver would fail on the
+		 * first class of the new input. So the checks are off while the
+		 * input is loaded, like in a fresh scene, and on again after
+		 * necessaryClassesLoaded.
+		 */
+		soot.options.Options.v().set_ignore_resolving_levels(true);
+
+		Set<SootClass> stale = new LinkedHashSet<SootClass>();
+		for (SootClass sc : Scene.v().getClasses()) {
+			int[] state = baseline.get(sc);
+			if (state == null || !sameMembers(state, state(sc))) {
+				stale.add(sc);
+			}
+		}
+		// classes that point to a removed class have to go as well.
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (SootClass sc : Scene.v().getClasses()) {
+				if (!stale.contains(sc) && refersTo(sc, stale)) {
+					stale.add(sc);
+					changed = true;
+				}
+			}
+		}
+		for (SootClass sc : stale) {
+			Scene.v().removeClass(sc);
+			baseline.remove(sc);
+		}
+		// SootRunner raises the level of all classes after loading.
+		for (Entry<SootClass, int[]> entry : baseline.entrySet()) {
+			entry.getKey().setResolvingLevel(entry.getValue()[0]);
+		}
+		Scene.v().releaseActiveHierarchy();
+		Scene.v().releaseFastHierarchy();
+		// SootRunner only sets the options that the kind of input needs.
+		soot.options.Options.v().set_process_dir(new ArrayList<String>());
+		soot.options.Options.v().set_src_prec(soot.options.Options.src_prec_class);
+		// recompute the class path from the options of the next run.
+		Scene.v().setSootClassPath(null);
+		Log.info("Reusing scene, removed " + stale.size() + " classes of the previous run.");
+	}
+
+	private static int[] state(SootClass sc) {
+		return new int[] { sc.resolvingLevel(), sc.hasSuperclass() ? 1 : 0, sc.getInterfaceCount(),
+				sc.getFieldCount(), sc.getMethodCount() };
+	}
+
+	/**
+	 * Compares everything but the resolving level.
+	 */
+	private static boolean sameMembers(int[] a, int[] b) {
+		return Arrays.equals(Arrays.copyOfRange(a, 1, a.length), Arrays.copyOfRange(b, 1, b.length));
+	}
+
+	private static boolean refersTo(SootClass sc, Set<SootClass> classes) {
+		List<SootClass> referenced = new ArrayList<SootClass>();
+		if (sc.hasSuperclass()) {
+			referenced.add(sc.getSuperclass());
+		}
+		if (sc.hasOuterClass()) {
+			referenced.add(sc.getOuterClass());
+		}
+		referenced.addAll(sc.getInterfaces());
+		for (SootMethod m : sc.getMethods()) {
+			referenced.addAll(m.getExceptions());
+		}
+		for (SootClass other : referenced) {
+			if (classes.contains(other)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
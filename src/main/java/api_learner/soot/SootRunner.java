@@ -25,17 +25,16 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
+import java.util.Set;
 
 import soot.PackManager;
 import soot.Scene;
 import soot.SootClass;
+import api_learner.Options;
+import api_learner.util.RunReport;
 
 /**
  * The Soot Runner
@@ -84,6 +83,9 @@ public class SootRunner {
 	 */
 	private void runWithJar(String jarFile, String classPath, CallgraphAlgorithm cga) {
 		try {
+			if (Options.v().getCacheDir() != null) {
+				JarIndex.v().setIndexFile(new File(Options.v().getCacheDir(), JarIndex.INDEX_FILENAME));
+			}
 			// extract dependent JARs
 			List<File> jarFiles = new ArrayList<File>();
 			jarFiles.addAll(extractClassPath(new File(jarFile)));
@@ -98,8 +100,11 @@ public class SootRunner {
 			// set soot-class-path
 			sootOpt.set_soot_classpath(cp);
 
+			List<String> classes = enumClasses(new File(jarFile));
+			JarIndex.v().save();
+
 			// finally, run soot
-			runSootAndAnalysis(enumClasses(new File(jarFile)), cga);
+			runSootAndAnalysis(classes, cga);
 
 		} catch (Exception e) {
 			throw e;
@@ -249,16 +254,27 @@ public class SootRunner {
 			soot.G.v().out = new PrintStream(baos, true, "utf-8");
 			// Now load the soot classes.
 
+			RunReport report = RunReport.v();
+			report.startPhase("soot.basic-classes");
+			Set<String> inputClasses = new HashSet<String>(classes);
 			Scene.v().loadBasicClasses();
+			SceneRecycler.v().basicClassesLoaded(inputClasses);
+			report.endPhase("soot.basic-classes");
+			report.startPhase("soot.necessary-classes");
 			Scene.v().loadNecessaryClasses();
+			SceneRecycler.v().necessaryClassesLoaded();
+			report.endPhase("soot.necessary-classes");
 
 			// We explicitly select the packs we want to run for performance
 			// reasons. Do not re-run the callgraph algorithm if the host
 			// application already provides us with a CG.
 			if (cga != CallgraphAlgorithm.None && !Scene.v().hasCallGraph()) {
+				report.startPhase("soot.cg");
 				PackManager.v().getPack("wjpp").apply();
 				PackManager.v().getPack("cg").apply();
+				report.endPhase("soot.cg");
 			}
+			report.count("classes", Scene.v().getClasses().size());
 
 			/*
 			 * TODO: apply some preprocessing stuff like:
@@ -269,7 +285,7 @@ public class SootRunner {
 					sc.setResolvingLevel(SootClass.SIGNATURES);
 				}
 
-				if (classes.contains(sc.getName())) {
+				if (inputClasses.contains(sc.getName())) {
 					sc.setApplicationClass();
 				}
 			}
@@ -304,44 +320,12 @@ public class SootRunner {
 	 * @returns jarFiles List of dependent JARs
 	 */
 	protected List<File> extractClassPath(File file) {
-		List<File> jarFiles = new LinkedList<File>();
 		try {
-			// open JAR file
-			JarFile jarFile = new JarFile(file);
-
-			// get manifest and their main attributes
-			Manifest manifest = jarFile.getManifest();
-			if (manifest == null) {
-				jarFile.close();
-				return jarFiles;
-			}
-			Attributes mainAttributes = manifest.getMainAttributes();
-			if (mainAttributes == null) {
-				jarFile.close();
-				return jarFiles;
-			}
-			String classPath = mainAttributes.getValue(Attributes.Name.CLASS_PATH);
-
-			// close JAR file
-			jarFile.close();
-
-			// empty class path?
-			if (null == classPath)
-				return jarFiles;
-
-			// look for dependent JARs
-			String[] classPathItems = classPath.split(" ");
-			for (String classPathItem : classPathItems) {
-				if (classPathItem.endsWith(".jar")) {
-					// add jar
-					jarFiles.add(new File(file.getParent(), classPathItem));
-				}
-			}
-
+			// the jars on the class path of the dependent JARs are needed as well
+			return JarIndex.v().getClassPath(file);
 		} catch (IOException e) {
 			throw new RuntimeException(e.toString());
 		}
-		return jarFiles;
 	}
 
 	/**
@@ -352,33 +336,10 @@ public class SootRunner {
 	 * @returns list of classes in the Jar file.
 	 */
 	protected List<String> enumClasses(File file) {
-		List<String> classes = new LinkedList<String>();
 		try {
-			// open JAR file
-			JarFile jarFile = new JarFile(file);
-			Enumeration<JarEntry> entries = jarFile.entries();
-
-			// iterate JAR entries
-			while (entries.hasMoreElements()) {
-				JarEntry entry = entries.nextElement();
-				String entryName = entry.getName();
-
-				if (entryName.endsWith(".class")) {
-					// get class
-					String className = entryName.substring(0, entryName.length() - ".class".length());
-					className = className.replace('/', '.');
-
-					// add class					
-					classes.add(className);
-				}
-			}
-
-			// close JAR file
-			jarFile.close();
-
+			return new ArrayList<String>(JarIndex.v().getClasses(file));
 		} catch (IOException e) {
 			throw new RuntimeException(e.getMessage());
 		}
-		return classes;
 	}
 }
@@ -3,11 +3,11 @@
  */
 package api_learner.soot;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.util.AbstractMap;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -16,16 +16,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.Stack;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import soot.Body;
-import soot.Hierarchy;
+import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+import soot.jimple.ThrowStmt;
 import api_learner.Options;
 import api_learner.soot.SootRunner.CallgraphAlgorithm;
 import api_learner.util.Log;
+import api_learner.util.RunReport;
 
 /**
  * This is the main class for the translation. It first invokes Soot to load all
@@ -38,7 +45,42 @@ import api_learner.util.Log;
 public class SootToCfg {
 
 	Map<SootMethod, Set<SootMethod>> callDependencyMap = new LinkedHashMap<SootMethod, Set<SootMethod>>();
-	Map<SootMethod, LocalCallGraphBuilder> procedureCallGraphs = new LinkedHashMap<SootMethod, LocalCallGraphBuilder>();
+	Map<SootMethod, InlinedCallGraph> procedureCallGraphs = new LinkedHashMap<SootMethod, InlinedCallGraph>();
+	/**
+	 * Fully inlined graphs of procedures whose inlining does not depend on
+	 * the call stack. They are shared by all call sites and all heads.
+	 */
+	Map<SootMethod, InlinedCallGraph> inlinedSummaries = new HashMap<SootMethod, InlinedCallGraph>();
+	/**
+	 * Strongly connected components of the call dependencies. Used to decide
+	 * in constant time if a call may be recursive.
+	 */
+	private MyCallDependencyGraph callDependencyGraph;
+	/**
+	 * Per-head budget of nodes and edges, see -max-nodes and -max-edges.
+	 */
+	private int maxNodes = 0, maxEdges = 0;
+	private int budgetHits = 0;
+	/**
+	 * Store for the graphs that are no longer modified, or null to keep
+	 * them on the heap, see -off-heap.
+	 */
+	private OffHeapGraphStore offHeap = null;
+	/**
+	 * Summary nodes of the procedures that were not inlined because of the
+	 * budget.
+	 */
+	private final Map<SootMethod, BudgetSummary> budgetSummaries = new HashMap<SootMethod, BudgetSummary>();
+
+	private static class BudgetSummary {
+		final int label;
+		final List<SootClass> exceptions;
+
+		BudgetSummary(int label, List<SootClass> exceptions) {
+			this.label = label;
+			this.exceptions = exceptions;
+		}
+	}
 
 	/**
 	 * Generates the call graph for given input
@@ -48,144 +90,343 @@ public class SootToCfg {
 	 * @return true if the input could be analyzed and false otherwise.
 	 */
 	public Collection<String> run(String input) {
+		CallGraphSymbols.resetInstance();
+		ExceptionLattice.resetInstance();
+		VirtualDispatchCache.resetInstance();
+		CallSiteTargets.resetInstance();
+		Namespace.resetInstance();
+		OffHeapGraphStore.resetInstance();
+		RunReport.resetInstance();
+		RunReport report = RunReport.v();
+		this.maxNodes = Options.v().getMaxNodes();
+		this.maxEdges = Options.v().getMaxEdges();
+		this.budgetHits = 0;
+		this.budgetSummaries.clear();
+		this.offHeap = Options.v().isOffHeap() ? OffHeapGraphStore.v() : null;
 
 		// run soot to load all classes.
 		SootRunner runner = new SootRunner();
 		runner.run(input, Options.v().getClasspath(), Options.v().getCallGraphAlgorithm());
 
-		if (Options.v().getCallGraphAlgorithm() != CallgraphAlgorithm.None) {
-			Log.info("Call Graph found ... but Ignored ... don't use spark for now!");
+		if (Options.v().getCallGraphAlgorithm() != CallgraphAlgorithm.None && Scene.v().hasCallGraph()) {
+			CallSiteTargets targets = CallSiteTargets.init(Scene.v().getCallGraph());
+			Log.info("Using the call graph of Soot for " + targets.size() + " call sites.");
+			report.count("call-sites.from-cg", targets.size());
 		} else {
 			Log.info("No Callgraph (use -cg spark if you want one). Improvising!");
 		}
 		Log.info("Total classes in secene : " + Scene.v().getClasses().size());
 
+		LocalCallGraphCache cache = null;
+		if (Options.v().getCacheDir() != null) {
+			cache = new LocalCallGraphCache(new File(Options.v().getCacheDir()), input);
+			cache.load();
+		}
+
+		/*
+		 * Jimplify all bodies first. Soot is not thread safe, so this
+		 * always happens sequentially. Classes whose local call graphs are
+		 * still in the cache are not jimplified at all.
+		 */
+		report.startPhase("jimplify");
+		List<SootClass> classes = new ArrayList<SootClass>(Scene.v().getClasses());
+		Map<SootMethod, InlinedCallGraph> localGraphs = new HashMap<SootMethod, InlinedCallGraph>();
+		List<SootClass> rebuiltClasses = new LinkedList<SootClass>();
+		List<Body> bodies = new ArrayList<Body>();
+		for (SootClass sc : classes) {
+			Map<SootMethod, InlinedCallGraph> restored = null;
+			if (cache != null && sc.isApplicationClass()) {
+				restored = cache.restore(sc);
+			}
+			if (restored != null) {
+				localGraphs.putAll(restored);
+			} else {
+				processSootClass(sc, bodies);
+				rebuiltClasses.add(sc);
+			}
+		}
+		report.endPhase("jimplify");
+		report.count("methods.restored", localGraphs.size());
+		report.count("methods.analyzed", bodies.size());
 		/*
 		 * Construct the call graphs for each method.
 		 */
-		for (SootClass sc : Scene.v().getClasses()) {
-			processSootClass(sc);
+		report.startPhase("local-graphs");
+		if (Options.v().getThreads() > 1) {
+			transformStmtListsInParallel(bodies, Options.v().getThreads(), localGraphs);
+		} else {
+			for (Body body : bodies) {
+				localGraphs.put(body.getMethod(), transformStmtList(body));
+			}
+		}
+		report.endPhase("local-graphs");
+		// add them in the order of the classes to get a stable output.
+		for (SootClass sc : classes) {
+			if (sc.isApplicationClass()) {
+				for (SootMethod sm : sc.getMethods()) {
+					if (localGraphs.containsKey(sm)) {
+						addLocalCallGraph(sm, localGraphs.get(sm));
+					}
+				}
+			}
 		}
+		if (cache != null) {
+			for (SootClass sc : rebuiltClasses) {
+				if (sc.isApplicationClass()) {
+					Map<SootMethod, InlinedCallGraph> graphs = new LinkedHashMap<SootMethod, InlinedCallGraph>();
+					for (SootMethod sm : sc.getMethods()) {
+						if (localGraphs.containsKey(sm)) {
+							graphs.put(sm, localGraphs.get(sm));
+						}
+					}
+					cache.store(sc, graphs);
+				}
+			}
+		}
+		if (this.offHeap != null) {
+			for (Entry<SootMethod, InlinedCallGraph> entry : this.procedureCallGraphs.entrySet()) {
+				entry.setValue(entry.getValue().moveOffHeap(this.offHeap));
+			}
+		}
+		Log.info("Virtual dispatch cache: " + VirtualDispatchCache.v().getHits() + " hits, "
+				+ VirtualDispatchCache.v().getMisses() + " misses");
+		report.count("dispatch-cache.hits", VirtualDispatchCache.v().getHits());
+		report.count("dispatch-cache.misses", VirtualDispatchCache.v().getMisses());
 		/*
 		 * Now create one global call graph.
 		 */
+		report.startPhase("call-dependencies");
 		MyCallDependencyGraph myCG = new MyCallDependencyGraph(
 				this.callDependencyMap);
+		this.callDependencyGraph = myCG;
+		report.count("components", myCG.getComponents().size());
+		report.endPhase("call-dependencies");
 //		myCG.toDot("cg.dot");
-//		for (SootMethod m : myCG.getHeads()) {
+//		for (SootMethod m : myCG.getEntries()) {
 //			System.out.println("Entries " + m.getName());
 //		}
-		//TODO: some procedures might be ignored ...
-		// ... if their entry is already recursive
 
 		Collection<String> dotfileNames = new LinkedList<String>();
 		
-//		int i = 0;
-		// build the icfg...
-		Map<SootMethod, LocalCallGraphBuilder> graphs = new LinkedHashMap<SootMethod, LocalCallGraphBuilder>();
-		for (SootMethod m : myCG.getHeads()) {
-			LocalCallGraphBuilder cgb = inlineCallgraphs(m,
-					new Stack<Entry<SootMethod, LocalCallGraphBuilder>>());
-			if (!cgb.getNodes().isEmpty()) {
-//				final String filename = "dot/" + String.format("%04d", i++) + "_" + m.getName()+".dot";
-//				cgb.toDot(filename);				
-//				dotfileNames.add(filename);
-				graphs.put(m, cgb);
-			}
-		}
 		File outdir = new File(Options.v().getOutFileDirName());
 		if (!outdir.exists() || !outdir.isDirectory()) {
 			if (!outdir.mkdir()) {
 				System.err.println("say sth meaningful");
 			}
 		}
-		dotfileNames.addAll(generateDotFiles(outdir, graphs, Options.v().getGeneratePdf()));
+		/*
+		 * build the icfg bottom-up: a component is only processed after all
+		 * components it calls, so their summaries are ready. Inside of a
+		 * component, we only start from methods that are called from
+		 * outside or that are entries. The graph of each entry is written
+		 * as soon as it is built, and the summary of a method is dropped
+		 * once all components that call it are done.
+		 */
+		Set<SootMethod> entries = new HashSet<SootMethod>(myCG.getEntries());
+		Map<SootMethod, Integer> pendingCallers = new HashMap<SootMethod, Integer>();
+		for (List<SootMethod> component : myCG.getComponents()) {
+			for (SootMethod callee : calleesInOtherComponents(component, myCG)) {
+				Integer pending = pendingCallers.get(callee);
+				pendingCallers.put(callee, pending == null ? 1 : pending + 1);
+			}
+		}
+		boolean generateDot = Options.v().getGenerateDot();
+		if (!generateDot && Options.v().getGeneratePdf()) {
+			Log.error("-pdf needs the dot files and is ignored with -no-dot.");
+		}
+		final boolean minimize = Options.v().isMinimize();
+		GraphWriter writer = new GraphWriter(outdir, Options.v().getWriters(), generateDot,
+				createPdfRenderer(generateDot && Options.v().getGeneratePdf()));
+		report.startPhase("inline");
+		try {
+			for (List<SootMethod> component : myCG.getComponents()) {
+				for (SootMethod m : component) {
+					if (entries.contains(m) || myCG.isCalledFromOtherComponent(m)) {
+						final int hits = this.budgetHits;
+						InlinedCallGraph cgb = inlineCallgraphs(m, new CompactCallGraph(),
+								new HashMap<SootMethod, InlinedCallGraph>());
+						if (this.budgetHits > hits) {
+							Log.info("Inlining budget exceeded for " + m.getSignature() + ": "
+									+ (this.budgetHits - hits) + " calls summarized.");
+						}
+						if (entries.contains(m)) {
+							writer.submit(m, offHeap(minimize ? minimize(cgb) : cgb));
+							report.count("entries", 1);
+						}
+					}
+				}
+				releaseSummaries(component, myCG, pendingCallers);
+			}
+			report.endPhase("inline");
+		} finally {
+			// only waits for the graphs that are still queued.
+			report.startPhase("write");
+			dotfileNames.addAll(writer.close());
+			report.endPhase("write");
+		}
+		if (this.budgetHits > 0) {
+			Log.info("Inlining budget exceeded " + this.budgetHits + " times.");
+		}
+		if (this.offHeap != null) {
+			Log.info("Off-heap store: " + report.getCount("off-heap.graphs") + " graphs, "
+					+ report.getCount("off-heap.bytes") + " bytes.");
+		}
+		if (minimize) {
+			Log.info("Minimization: " + report.getCount("minimize.nodes-before") + " -> "
+					+ report.getCount("minimize.nodes-after") + " nodes, "
+					+ report.getCount("minimize.edges-before") + " -> "
+					+ report.getCount("minimize.edges-after") + " edges.");
+		}
+		try {
+			report.write(outdir, input);
+		} catch (IOException e) {
+			Log.error("Cannot write " + RunReport.REPORT_FILENAME + ": " + e.getMessage());
+		}
 
 		return dotfileNames;
 	}
 
 	
-	public Collection<String> generateDotFiles(File outputDir, Map<SootMethod, LocalCallGraphBuilder> graphs, boolean generatePdf) {
-		final String methodToDotMappingFilename = "methods.txt";
-		Collection<String> dotfileNames = new LinkedList<String>();
-		File mappingFile = new File(outputDir.getAbsolutePath() + File.separator + methodToDotMappingFilename);
-		try (FileWriter fileWritter = new FileWriter(mappingFile.getAbsolutePath(), true);
-				BufferedWriter bufferWritter = new BufferedWriter(fileWritter);) {
-			long counter = 0L;
-			for (Entry<SootMethod, LocalCallGraphBuilder> entry : graphs.entrySet()) {
-				// create the dot file.
-				String dotFilename = String.format("%09d.dot", counter);
-				File dotFile = new File(outputDir.getAbsolutePath() + File.separator + dotFilename);
-				dotfileNames.add(dotFile.getAbsolutePath());
-				entry.getValue().toDot(dotFile.getAbsolutePath());
-				bufferWritter.write(entry.getKey().getSignature());
-				bufferWritter.write("\t");
-				bufferWritter.write(dotFilename);
-				bufferWritter.write("\n");
-				counter++;
-				
-				if (generatePdf) {
-					try {
-						String pdffileName = dotFile.getAbsolutePath().replace(".dot", ".pdf");
-						Process p = Runtime.getRuntime()
-								.exec("/usr/local/bin/dot -Tpdf " + dotFile.getAbsolutePath() + " -o " + pdffileName);
-						p.waitFor();
-					} catch (Throwable e) {
-						System.err.println(e.toString());
-					}
-				}
-				
+	public Collection<String> generateDotFiles(File outputDir, Map<SootMethod, InlinedCallGraph> graphs, boolean generatePdf) {
+		GraphWriter writer = new GraphWriter(outputDir, 1, true, createPdfRenderer(generatePdf));
+		for (Entry<SootMethod, InlinedCallGraph> entry : graphs.entrySet()) {
+			writer.submit(entry.getKey(), entry.getValue());
+		}
+		return writer.close();
+	}
+
+	private PdfRenderer createPdfRenderer(boolean generatePdf) {
+		if (!generatePdf) {
+			return null;
+		}
+		return new PdfRenderer(Options.v().getDotBinary(), Options.v().getPdfThreads(),
+				Options.v().getPdfTimeout());
+	}
+
+	/**
+	 * Drops the summaries that are no longer needed once component has been
+	 * inlined: those of its callees that have no other callers left, and
+	 * those of its own members that no other component calls.
+	 */
+	private void releaseSummaries(List<SootMethod> component, MyCallDependencyGraph cg,
+			Map<SootMethod, Integer> pendingCallers) {
+		for (SootMethod m : component) {
+			if (!pendingCallers.containsKey(m)) {
+				this.inlinedSummaries.remove(m);
 			}
-		} catch (Throwable e) {
-			throw new RuntimeException("Storing failed: " + e.toString());
 		}
-		return dotfileNames;
+		for (SootMethod callee : calleesInOtherComponents(component, cg)) {
+			int pending = pendingCallers.get(callee) - 1;
+			if (pending == 0) {
+				pendingCallers.remove(callee);
+				this.inlinedSummaries.remove(callee);
+			} else {
+				pendingCallers.put(callee, pending);
+			}
+		}
+	}
 
+	private Set<SootMethod> calleesInOtherComponents(List<SootMethod> component, MyCallDependencyGraph cg) {
+		int id = cg.getComponentId(component.get(0));
+		Set<SootMethod> callees = new HashSet<SootMethod>();
+		for (SootMethod m : component) {
+			for (SootMethod callee : cg.getSuccsOf(m)) {
+				if (cg.getComponentId(callee) != id) {
+					callees.add(callee);
+				}
+			}
+		}
+		return callees;
 	}
 	
 	
-	private LocalCallGraphBuilder inlineCallgraphs(SootMethod m,
-			Stack<Entry<SootMethod, LocalCallGraphBuilder>> callStack) {
-		LocalCallGraphBuilder cgb = this.procedureCallGraphs.get(m).duplicate();
+	/**
+	 * Copies the graph of m into target and inlines the graphs of all its
+	 * callees. Each method of the strongly connected component of m is
+	 * inlined at most once: further calls to it are treated as recursive
+	 * calls to the copy in inComponent. If m is the first method of its
+	 * component that we inline, the result does not depend on the caller and
+	 * a copy is stored in inlinedSummaries and only copied into target on
+	 * later calls.
+	 * 
+	 * A callee whose graph would make target exceed the node or edge budget
+	 * is not inlined but replaced by a single summary node, see
+	 * {@link #summarizeCall}. Graphs that contain such a node are not stored
+	 * in inlinedSummaries, so other heads can still inline them in full.
+	 * 
+	 * @param m
+	 * @param target
+	 *            the graph that all nodes are added to.
+	 * @param inComponent
+	 *            the methods of the component of m that have been inlined
+	 *            already.
+	 * @return the graph of m. The caller may modify it.
+	 */
+	InlinedCallGraph inlineCallgraphs(SootMethod m, CompactCallGraph target,
+			Map<SootMethod, InlinedCallGraph> inComponent) {
+		if (this.inlinedSummaries.containsKey(m)) {
+			RunReport.v().count("inline.summary-copies", 1);
+			return this.inlinedSummaries.get(m).appendTo(target);
+		}
+		RunReport.v().count("inline.expansions", 1);
+		final CallGraphSymbols symbols = CallGraphSymbols.v();
+		final ExceptionLattice exceptions = ExceptionLattice.v();
+		InlinedCallGraph local = this.procedureCallGraphs.get(m);
+		final int offset = local.appendNodesTo(target);
+		Map<SootClass, Integer> exSinks = new LinkedHashMap<SootClass, Integer>();
+		for (Entry<SootClass, Integer> entry : local.getExceptionalSinks().entrySet()) {
+			exSinks.put(entry.getKey(), entry.getValue() + offset);
+		}
+		InlinedCallGraph cgb = new InlinedCallGraph(m, target, local.getSource() + offset,
+				local.getSink() < 0 ? -1 : local.getSink() + offset, exSinks);
 		/*
-		 * Push the current procedure on the stack so, in case we call it
+		 * Remember the current procedure so, in case we call it
 		 * recursively, we don't start going into an infinite loop.
 		 */
-		callStack
-				.push(new AbstractMap.SimpleEntry<SootMethod, LocalCallGraphBuilder>(
-						m, cgb));
-
-		List<InterprocdurcalCallGraphNode> todo = new LinkedList<InterprocdurcalCallGraphNode>(
-				cgb.getNodes());
-		for (InterprocdurcalCallGraphNode n : todo) {
-			for (SootMethod callee : new HashSet<SootMethod>(n.getCallees())) {
+		final boolean componentEntry = inComponent.isEmpty();
+		final int hits = this.budgetHits;
+		inComponent.put(m, cgb);
+		final int component = this.callDependencyGraph.getComponentId(m);
+
+		for (int localNode : local.getNodes()) {
+			final int n = localNode + offset;
+			for (int calleeId : target.getCallees(n)) {
+				SootMethod callee = symbols.method(calleeId);
 				if (this.procedureCallGraphs.containsKey(callee)) {
-					n.getCallees().remove(callee);
-					LocalCallGraphBuilder recursiveCg = findInStack(callee,
-							callStack);
+					target.removeCallee(n, calleeId);
+					InlinedCallGraph recursiveCg = inComponent.get(callee);
 					if (recursiveCg == null) {
+						if (exceedsBudget(callee, target)) {
+							summarizeCall(callee, n, cgb);
+							continue;
+						}
 						//which mean that this procedure has not been 
-						//inline on this path.
-						recursiveCg = inlineCallgraphs(callee, callStack);
+						//inline in this component yet.
+						if (this.callDependencyGraph.getComponentId(callee) != component) {
+							// callees in other components cannot call back.
+							recursiveCg = inlineCallgraphs(callee, target,
+									new HashMap<SootMethod, InlinedCallGraph>());
+						} else {
+							recursiveCg = inlineCallgraphs(callee, target, inComponent);
+						}
 						// connect all predecessors to the successors of the
 						// source of the callee (i.e.,
 						// throw away the old source).
-						for (InterprocdurcalCallGraphNode pre : n.predessors) {
-							for (InterprocdurcalCallGraphNode entry : recursiveCg
-									.getSource().successors) {
-								pre.connectTo(entry);
+						for (int pre : target.getPredecessors(n)) {
+							for (int entry : target.getSuccessors(recursiveCg.getSource())) {
+								target.connect(pre, entry);
 							}
 						}
 						// now for the sink
-						if (recursiveCg.getSink() != null) {
-							for (InterprocdurcalCallGraphNode ret : n.successors) {
-								for (InterprocdurcalCallGraphNode suc : recursiveCg.getSink().predessors) {
-									suc.connectTo(ret);
+						if (recursiveCg.getSink() >= 0) {
+							for (int ret : target.getSuccessors(n)) {
+								for (int suc : target.getPredecessors(recursiveCg.getSink())) {
+									target.connect(suc, ret);
 								}
 							}
 							//now disconnect the old sink.
-							for (InterprocdurcalCallGraphNode pre : recursiveCg.getSink().predessors) {
-								pre.successors.remove(recursiveCg.getSink());
+							for (int pre : target.getPredecessors(recursiveCg.getSink())) {
+								target.disconnect(pre, recursiveCg.getSink());
 							}
 						}
 						/*
@@ -195,52 +436,47 @@ public class SootToCfg {
 						 * This is necessary, because some of the exceptions thrown by the callee might be caught in the caller.
 						 */
 						
-						for (Entry<SootClass, InterprocdurcalCallGraphNode> entry : recursiveCg.getExceptionalSinks().entrySet()) {
+						for (Entry<SootClass, Integer> entry : recursiveCg.getExceptionalSinks().entrySet()) {
 							//check if the current node is connected to an exceptional sink that also occurs in the callee.
 							//if so, re-wire the predecessors in the callee
-							if (cgb.getExceptionalSinks().containsKey(entry.getKey()) && n.successors.contains(cgb.getExceptionalSinks().get(entry.getKey()))) {
+							if (cgb.getExceptionalSinks().containsKey(entry.getKey()) && target.hasEdge(n, cgb.getExceptionalSinks().get(entry.getKey()))) {
 //								System.err.println("Found sink for " + entry.getKey().getName());
-								InterprocdurcalCallGraphNode esink = entry.getValue();
-								for (InterprocdurcalCallGraphNode pre : new LinkedHashSet<InterprocdurcalCallGraphNode>(esink.predessors)) {
-									pre.successors.remove(esink);
-									pre.connectTo(cgb.getExceptionalSinks().get(entry.getKey()));
-									esink.predessors.remove(pre);
+								int esink = entry.getValue();
+								for (int pre : target.getPredecessors(esink)) {
+									target.disconnect(pre, esink);
+									target.connect(pre, cgb.getExceptionalSinks().get(entry.getKey()));
 								}
 							} else {
 //								System.err.println("No sink for " + entry.getKey().getName());
 								//check if there 
-								Set<SootClass> thrownSubtype = new HashSet<SootClass>();
-								Hierarchy hierarchy = Scene.v().getActiveHierarchy();
+								Set<SootClass> thrownSubtype = new LinkedHashSet<SootClass>();
 								SootClass parent = entry.getKey();
-								for (Entry<SootClass, InterprocdurcalCallGraphNode> entry_ : cgb.getExceptionalSinks().entrySet()) {
-									if (hierarchy.isClassSubclassOfIncluding(entry_.getKey(), parent) ) {
+								for (Entry<SootClass, Integer> entry_ : cgb.getExceptionalSinks().entrySet()) {
+									if (exceptions.isSubclassOfIncluding(entry_.getKey(), parent) ) {
 										thrownSubtype.add(entry_.getKey());
 									}
 								}
 								if (!thrownSubtype.isEmpty()) {									
-									for (InterprocdurcalCallGraphNode pre : new HashSet<InterprocdurcalCallGraphNode>(entry.getValue().predessors)) {
-										pre.successors.remove(entry.getValue());
-										entry.getValue().predessors.remove(pre);
+									for (int pre : target.getPredecessors(entry.getValue())) {
+										target.disconnect(pre, entry.getValue());
 										for (SootClass exception : thrownSubtype) {
-											pre.connectTo(cgb.getExceptionalSinks().get(exception));
+											target.connect(pre, cgb.getExceptionalSinks().get(exception));
 										}
 									}
 								} else {									
 									//then this guy is not being caught on the caller side and 
 									//we have to add a new exceptional sink to cgb
-									InterprocdurcalCallGraphNode esink = entry.getValue();
+									int esink = entry.getValue();
 									SootClass exception = entry.getKey();
-									for (InterprocdurcalCallGraphNode pre : new HashSet<InterprocdurcalCallGraphNode>(esink.predessors)) {
-										pre.successors.remove(esink);
-										esink.predessors.remove(pre);
+									for (int pre : target.getPredecessors(esink)) {
+										target.disconnect(pre, esink);
 										
 										if (!cgb.getExceptionalSinks().containsKey(exception)) {
-											InterprocdurcalCallGraphNode node = new InterprocdurcalCallGraphNode();
-											node.setLabel("Exception "+exception.getName());
+											int node = target.addNode(symbols.labelId("Exception "+exception.getName()));
 											cgb.getExceptionalSinks().put(exception, node);
 										}
-										InterprocdurcalCallGraphNode ex = cgb.getExceptionalSinks().get(exception); 
-										pre.connectTo(ex);			
+										int ex = cgb.getExceptionalSinks().get(exception); 
+										target.connect(pre, ex);			
 									}									
 								}
 							}
@@ -249,13 +485,13 @@ public class SootToCfg {
 						
 						
 					} else {
+						RunReport.v().count("inline.recursive-calls", 1);
 						System.err.println("\twoooo Recursive! "
 								+ callee.getBytecodeSignature());
 						//connect the predecessors of n to the recursive call
-						for (InterprocdurcalCallGraphNode pre : n.predessors) {
-							for (InterprocdurcalCallGraphNode entry : recursiveCg
-									.getSource().successors) {
-								pre.connectTo(entry);
+						for (int pre : target.getPredecessors(n)) {
+							for (int entry : target.getSuccessors(recursiveCg.getSource())) {
+								target.connect(pre, entry);
 							}
 						}
 						//no need to process the successors because they are already connected.
@@ -265,55 +501,253 @@ public class SootToCfg {
 //							.println("\tooo " + callee.getBytecodeSignature());
 				}
 			}
-			if (n.getCallees().isEmpty() && n != cgb.getSource()
+			if (target.getCalleeCount(n) == 0 && n != cgb.getSource()
 					&& n != cgb.getSink()) {
 				// then we could inline all calls and we can
 				// safely remove the node
-				for (InterprocdurcalCallGraphNode pre : n.predessors) {
-					pre.successors.remove(n);
-				}
-				for (InterprocdurcalCallGraphNode suc : n.successors) {
-					suc.predessors.remove(n);
-				}
-				cgb.removeNode(n);
+				target.removeNode(n);
 			}
 		}
-		// pop the current procedure.
-		callStack.pop();
+		if (componentEntry && this.budgetHits == hits) {
+			this.inlinedSummaries.put(m, offHeap(cgb.copyFrom(offset)));
+		}
 		return cgb;
 	}
 
-	private LocalCallGraphBuilder findInStack(SootMethod m,
-			Stack<Entry<SootMethod, LocalCallGraphBuilder>> callStack) {
-		for (Entry<SootMethod, LocalCallGraphBuilder> entry : callStack) {
-			if (m == entry.getKey())
-				return entry.getValue();
+	/**
+	 * Merges the bisimilar nodes of the graph of a head and counts the
+	 * reachable nodes and edges before and after.
+	 */
+	private InlinedCallGraph minimize(InlinedCallGraph cgb) {
+		RunReport report = RunReport.v();
+		report.startPhase("minimize");
+		CompactCallGraph graph = cgb.getCallGraph();
+		int[] reachable = graph.reachableFrom(cgb.getSource());
+		long edges = 0;
+		for (int n : reachable) {
+			edges += graph.getSuccessors(n).length;
+		}
+		InlinedCallGraph minimized = cgb.minimize();
+		report.count("minimize.nodes-before", reachable.length);
+		report.count("minimize.edges-before", edges);
+		report.count("minimize.nodes-after", minimized.getCallGraph().size());
+		report.count("minimize.edges-after", minimized.getCallGraph().getEdgeCount());
+		report.endPhase("minimize");
+		return minimized;
+	}
+
+	/**
+	 * Estimates the size of callee from its summary, or from its local graph
+	 * if it has none yet.
+	 * 
+	 * @return true if inlining callee into target would exceed the budget.
+	 */
+	private boolean exceedsBudget(SootMethod callee, CompactCallGraph target) {
+		if (this.maxNodes <= 0 && this.maxEdges <= 0) {
+			return false;
+		}
+		InlinedCallGraph estimate = this.inlinedSummaries.get(callee);
+		if (estimate == null) {
+			estimate = this.procedureCallGraphs.get(callee);
+		}
+		return (this.maxNodes > 0 && (long) target.size() + estimate.size() > this.maxNodes)
+				|| (this.maxEdges > 0 && (long) target.getEdgeCount() + estimate.getEdgeCount() > this.maxEdges);
+	}
+
+	private InlinedCallGraph offHeap(InlinedCallGraph graph) {
+		return this.offHeap == null ? graph : graph.moveOffHeap(this.offHeap);
+	}
+
+	/**
+	 * Adds a summary node of callee in parallel to the call node n and wires
+	 * it to the exceptional sinks of cgb the same way an inlined graph
+	 * would be wired.
+	 */
+	private void summarizeCall(SootMethod callee, int n, InlinedCallGraph cgb) {
+		this.budgetHits++;
+		RunReport.v().count("inline.budget-hits", 1);
+		final CompactCallGraph target = cgb.getCallGraph();
+		BudgetSummary summary = budgetSummary(callee);
+		int node = target.addNode(summary.label);
+		for (int pre : target.getPredecessors(n)) {
+			target.connect(pre, node);
+		}
+		for (int suc : target.getSuccessors(n)) {
+			if (!cgb.getExceptionalSinks().containsValue(suc)) {
+				target.connect(node, suc);
+			}
+		}
+		Map<SootClass, Integer> exSinks = cgb.getExceptionalSinks();
+		for (SootClass exception : summary.exceptions) {
+			if (exSinks.containsKey(exception) && target.hasEdge(n, exSinks.get(exception))) {
+				target.connect(node, exSinks.get(exception));
+				continue;
+			}
+			boolean caught = false;
+			for (Entry<SootClass, Integer> entry : exSinks.entrySet()) {
+				if (ExceptionLattice.v().isSubclassOfIncluding(entry.getKey(), exception)) {
+					target.connect(node, entry.getValue());
+					caught = true;
+				}
+			}
+			if (!caught) {
+				exSinks.put(exception, target.addNode(CallGraphSymbols.v().labelId("Exception " + exception.getName())));
+				target.connect(node, exSinks.get(exception));
+			}
+		}
+	}
+
+	/**
+	 * The summary of m lists the API calls and the exceptional sinks of all
+	 * procedures that m may reach, without any order.
+	 */
+	private BudgetSummary budgetSummary(SootMethod m) {
+		BudgetSummary summary = this.budgetSummaries.get(m);
+		if (summary != null) {
+			return summary;
+		}
+		final CallGraphSymbols symbols = CallGraphSymbols.v();
+		Set<String> apis = new TreeSet<String>();
+		Map<String, SootClass> thrown = new TreeMap<String, SootClass>();
+		Set<SootMethod> reached = new HashSet<SootMethod>();
+		LinkedList<SootMethod> worklist = new LinkedList<SootMethod>();
+		reached.add(m);
+		worklist.add(m);
+		while (!worklist.isEmpty()) {
+			InlinedCallGraph local = this.procedureCallGraphs.get(worklist.removeFirst());
+			for (int n : local.getNodes()) {
+				for (int calleeId : local.getCallees(n)) {
+					SootMethod callee = symbols.method(calleeId);
+					if (!this.procedureCallGraphs.containsKey(callee)) {
+						apis.add(symbols.label(symbols.labelId(callee)));
+					} else if (reached.add(callee)) {
+						worklist.add(callee);
+					}
+				}
+			}
+			for (SootClass exception : local.getExceptionalSinks().keySet()) {
+				thrown.put(exception.getName(), exception);
+			}
+		}
+		StringBuilder label = new StringBuilder("Summary of " + m.getSignature());
+		for (String api : apis) {
+			label.append("\\n").append(api);
 		}
-		return null;
+		summary = new BudgetSummary(symbols.labelId(label.toString()),
+				new ArrayList<SootClass>(thrown.values()));
+		this.budgetSummaries.put(m, summary);
+		return summary;
 	}
 
 
 
 	/**
-	 * Analyze a single SootClass and transform all its Methods
+	 * Analyze a single SootClass and collect the bodies of all its Methods
 	 * 
 	 * @param sc
+	 * @param bodies
+	 *            list to which the bodies are added
 	 */
-	private void processSootClass(SootClass sc) {
+	private void processSootClass(SootClass sc, List<Body> bodies) {
 		if (sc.resolvingLevel() < SootClass.SIGNATURES) {
 			return;
 		}
 
 		if (sc.isApplicationClass()) {
 			for (SootMethod sm : sc.getMethods()) {
-				processSootMethod(sm);
+				processSootMethod(sm, bodies);
 			}
 		}
 	}
 
-	private void processSootMethod(SootMethod sm) {
+	private void processSootMethod(SootMethod sm, List<Body> bodies) {
 		if (sm.isConcrete()) {
-			transformStmtList(sm.retrieveActiveBody());
+			Body body = sm.retrieveActiveBody();
+			resolveReferences(body);
+			bodies.add(body);
+		}
+	}
+
+	/**
+	 * Resolves all method and type references of a body. Soot resolves
+	 * these lazily and may modify the Scene while doing so. Doing it
+	 * upfront ensures that the {@link LocalCallGraphBuilder} only reads
+	 * from the Scene, so it can run on multiple threads.
+	 * 
+	 * @param body
+	 */
+	private void resolveReferences(Body body) {
+		for (Unit u : body.getUnits()) {
+			Stmt s = (Stmt) u;
+			if (s.containsInvokeExpr()) {
+				s.getInvokeExpr().getMethod();
+			}
+			if (s instanceof ThrowStmt) {
+				((RefType) ((ThrowStmt) s).getOp().getType()).getSootClass();
+			}
+		}
+	}
+
+	/**
+	 * Builds the {@link LocalCallGraphBuilder} for all bodies on a fork-join
+	 * pool. Each task only writes to its own slot of the result array, so
+	 * no locking is needed.
+	 * 
+	 * @param bodies
+	 * @param threads
+	 *            number of worker threads
+	 * @param localGraphs
+	 *            map to which the local call graphs are added
+	 */
+	private void transformStmtListsInParallel(List<Body> bodies, int threads,
+			Map<SootMethod, InlinedCallGraph> localGraphs) {
+		// make sure the hierarchy exists before the workers start.
+		Scene.v().getActiveHierarchy();
+		Scene.v().getFastHierarchy();
+		ExceptionLattice.v();
+
+		InlinedCallGraph[] results = new InlinedCallGraph[bodies.size()];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new LocalCallGraphTask(bodies, results, 0, bodies.size()));
+		} finally {
+			pool.shutdown();
+		}
+		for (int i = 0; i < results.length; i++) {
+			localGraphs.put(bodies.get(i).getMethod(), results[i]);
+		}
+	}
+
+	/**
+	 * Recursively splits a range of bodies until it is small enough to
+	 * be processed by a single worker.
+	 */
+	private static class LocalCallGraphTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 8;
+
+		private final List<Body> bodies;
+		private final InlinedCallGraph[] results;
+		private final int from, to;
+
+		LocalCallGraphTask(List<Body> bodies, InlinedCallGraph[] results, int from, int to) {
+			this.bodies = bodies;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					results[i] = new LocalCallGraphBuilder(bodies.get(i)).getLocalCallGraph();
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new LocalCallGraphTask(bodies, results, from, mid),
+						new LocalCallGraphTask(bodies, results, mid, to));
+			}
 		}
 	}
 
@@ -322,8 +756,9 @@ public class SootToCfg {
 	 * 
 	 * @param body
 	 *            Body
+	 * @return the local call graph of the body.
 	 */
-	private void transformStmtList(Body body) {
+	private InlinedCallGraph transformStmtList(Body body) {
 //		System.err.println(body);
 		//eliminate the exceptions first.
 //		ExceptionTransformer transformer = new ExceptionTransformer(new NullnessAnalysis(new CompleteUnitGraph(body)));
@@ -331,20 +766,31 @@ public class SootToCfg {
 		
 		
 		LocalCallGraphBuilder flow = new LocalCallGraphBuilder(body);
+//		flow.toDot("local"+body.getMethod().getName()+body.getMethod().getNumber()+".dot");
+		return flow.getLocalCallGraph();
+	}
+
+	private void addLocalCallGraph(SootMethod method, InlinedCallGraph flow) {
 		// now collect all methods in ApplicationClasses that can be called from
 		// the body.
 		Set<SootMethod> calledApplicationMethods = new LinkedHashSet<SootMethod>();
-		for (InterprocdurcalCallGraphNode n : flow.getNodes()) {
-			for (SootMethod m : n.getCallees()) {
+		int callNodes = 0;
+		int[] nodes = flow.getNodes();
+		for (int n : nodes) {
+			if (flow.getCallGraph().getCalleeCount(n) > 0) {
+				callNodes++;
+			}
+			for (int calleeId : flow.getCallGraph().getCallees(n)) {
+				SootMethod m = CallGraphSymbols.v().method(calleeId);
 				if (m.getDeclaringClass().isApplicationClass()) {
 					calledApplicationMethods.add(m);
 				}
 			}
 		}
-		callDependencyMap.put(body.getMethod(), calledApplicationMethods);
-		this.procedureCallGraphs.put(body.getMethod(), flow);
-		
-//		flow.toDot("local"+body.getMethod().getName()+body.getMethod().getNumber()+".dot");
+		RunReport.v().count("local-graphs.nodes", nodes.length);
+		RunReport.v().count("local-graphs.call-nodes", callNodes);
+		callDependencyMap.put(method, calledApplicationMethods);
+		this.procedureCallGraphs.put(method, flow);
 	}
 
 }
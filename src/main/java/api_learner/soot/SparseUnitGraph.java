@@ -0,0 +1,97 @@
+package api_learner.soot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Unit;
+import soot.toolkits.graph.DirectedGraph;
+
+/**
+ * The units of a unit graph that may change the flow facts of
+ * {@link LocalCallGraphBuilder}, see
+ * {@link LocalCallGraphBuilder#mayChangeFlow}, and the heads. All other
+ * units pass their facts through, so they are left out and each kept unit
+ * is connected to the kept units it reaches over paths of left out units.
+ * The analysis computes the same facts on both graphs.
+ *
+ * @author schaef
+ */
+public class SparseUnitGraph implements DirectedGraph<Unit> {
+
+	private final List<Unit> heads;
+	private final List<Unit> tails = new ArrayList<Unit>();
+	// linked maps keep the order of the units in the body.
+	private final Map<Unit, List<Unit>> preds = new LinkedHashMap<Unit, List<Unit>>();
+	private final Map<Unit, List<Unit>> succs = new LinkedHashMap<Unit, List<Unit>>();
+
+	public SparseUnitGraph(DirectedGraph<Unit> graph) {
+		this.heads = new ArrayList<Unit>(graph.getHeads());
+		Set<Unit> kept = new HashSet<Unit>(this.heads);
+		for (Unit u : graph) {
+			if (kept.contains(u) || LocalCallGraphBuilder.mayChangeFlow(u)) {
+				kept.add(u);
+				this.preds.put(u, new ArrayList<Unit>());
+				this.succs.put(u, new ArrayList<Unit>());
+			}
+		}
+		Set<Unit> visited = new HashSet<Unit>();
+		LinkedList<Unit> worklist = new LinkedList<Unit>();
+		for (Map.Entry<Unit, List<Unit>> entry : this.succs.entrySet()) {
+			Unit from = entry.getKey();
+			visited.clear();
+			worklist.addAll(graph.getSuccsOf(from));
+			while (!worklist.isEmpty()) {
+				Unit u = worklist.removeFirst();
+				if (!visited.add(u)) {
+					continue;
+				}
+				if (kept.contains(u)) {
+					entry.getValue().add(u);
+					this.preds.get(u).add(from);
+				} else {
+					worklist.addAll(graph.getSuccsOf(u));
+				}
+			}
+			if (entry.getValue().isEmpty()) {
+				this.tails.add(from);
+			}
+		}
+	}
+
+	@Override
+	public List<Unit> getHeads() {
+		return Collections.unmodifiableList(this.heads);
+	}
+
+	@Override
+	public List<Unit> getTails() {
+		return Collections.unmodifiableList(this.tails);
+	}
+
+	@Override
+	public List<Unit> getPredsOf(Unit u) {
+		return Collections.unmodifiableList(this.preds.get(u));
+	}
+
+	@Override
+	public List<Unit> getSuccsOf(Unit u) {
+		return Collections.unmodifiableList(this.succs.get(u));
+	}
+
+	@Override
+	public int size() {
+		return this.succs.size();
+	}
+
+	@Override
+	public Iterator<Unit> iterator() {
+		return Collections.unmodifiableSet(this.succs.keySet()).iterator();
+	}
+}
@@ -0,0 +1,99 @@
+package api_learner.soot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.Body;
+import soot.Trap;
+import soot.Unit;
+
+/**
+ * Maps each unit of a body to the traps that guard it. The index is built
+ * in one pass over the units: each trap covers the interval of unit
+ * positions from its begin unit to its end unit (inclusive). Consecutive
+ * units that are guarded by the same traps share one list, so lookups
+ * neither iterate nor allocate.
+ *
+ * @author schaef
+ */
+public class TrapIndex {
+
+	private final Map<Unit, List<Trap>> guardingTraps = new HashMap<Unit, List<Trap>>();
+
+	public TrapIndex(Body body) {
+		if (body.getTraps().isEmpty()) {
+			return;
+		}
+		Map<Unit, Integer> positions = new HashMap<Unit, Integer>();
+		List<Unit> units = new ArrayList<Unit>(body.getUnits());
+		for (int i = 0; i < units.size(); i++) {
+			positions.put(units.get(i), i);
+		}
+		// the traps that start and end at each position.
+		List<List<Trap>> starts = new ArrayList<List<Trap>>(Collections.nCopies(units.size(), (List<Trap>) null));
+		List<List<Trap>> ends = new ArrayList<List<Trap>>(Collections.nCopies(units.size(), (List<Trap>) null));
+		for (Trap t : body.getTraps()) {
+			int begin = positions.get(t.getBeginUnit());
+			Integer end = positions.get(t.getEndUnit());
+			if (end == null || end < begin) {
+				end = units.size() - 1;
+			}
+			addAt(starts, begin, t);
+			addAt(ends, end, t);
+		}
+
+		List<Trap> active = new ArrayList<Trap>();
+		List<Trap> current = Collections.emptyList();
+		for (int i = 0; i < units.size(); i++) {
+			if (starts.get(i) != null) {
+				active.addAll(starts.get(i));
+				current = sortedCopy(active, body);
+			}
+			if (!current.isEmpty()) {
+				guardingTraps.put(units.get(i), current);
+			}
+			if (ends.get(i) != null) {
+				active.removeAll(ends.get(i));
+				current = sortedCopy(active, body);
+			}
+		}
+	}
+
+	/**
+	 * Returns the traps that guard u in the order of the traps of the body.
+	 * The list must not be modified.
+	 *
+	 * @param u
+	 * @return
+	 */
+	public List<Trap> getTrapsGuardingUnit(Unit u) {
+		List<Trap> res = guardingTraps.get(u);
+		if (res == null) {
+			return Collections.emptyList();
+		}
+		return res;
+	}
+
+	private static void addAt(List<List<Trap>> lists, int pos, Trap t) {
+		if (lists.get(pos) == null) {
+			lists.set(pos, new ArrayList<Trap>());
+		}
+		lists.get(pos).add(t);
+	}
+
+	private static List<Trap> sortedCopy(List<Trap> active, Body body) {
+		if (active.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Trap> res = new ArrayList<Trap>(active.size());
+		for (Trap t : body.getTraps()) {
+			if (active.contains(t)) {
+				res.add(t);
+			}
+		}
+		return Collections.unmodifiableList(res);
+	}
+}
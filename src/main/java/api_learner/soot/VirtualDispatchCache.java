@@ -0,0 +1,77 @@
+package api_learner.soot;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import soot.SootMethod;
+
+/**
+ * Run-wide cache of the targets of virtual calls, shared by all
+ * {@link LocalCallGraphBuilder} instances. The targets only depend on the
+ * callee and on the namespace, which does not change during a run, so the
+ * callee is the key. The cache is thread safe and counts its hits and
+ * misses.
+ *
+ * @author schaef
+ */
+public class VirtualDispatchCache {
+
+	private final ConcurrentHashMap<SootMethod, Set<SootMethod>> targets = new ConcurrentHashMap<SootMethod, Set<SootMethod>>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param callee
+	 * @return the targets of a call to callee, or null if they are not
+	 *         known yet.
+	 */
+	public Set<SootMethod> get(SootMethod callee) {
+		Set<SootMethod> res = targets.get(callee);
+		if (res == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return res;
+	}
+
+	/**
+	 * Stores the targets of a call to callee. If another thread stored
+	 * them first, its result is kept.
+	 *
+	 * @param callee
+	 * @param calleeTargets
+	 * @return the stored targets, which must not be modified.
+	 */
+	public Set<SootMethod> put(SootMethod callee, Set<SootMethod> calleeTargets) {
+		Set<SootMethod> res = Collections.unmodifiableSet(calleeTargets);
+		Set<SootMethod> old = targets.putIfAbsent(callee, res);
+		return old == null ? res : old;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static VirtualDispatchCache instance;
+
+	public static synchronized VirtualDispatchCache v() {
+		if (null == instance) {
+			instance = new VirtualDispatchCache();
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+
+	private VirtualDispatchCache() {
+	}
+}
@@ -0,0 +1,158 @@
+package api_learner.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the duration and heap growth of the phases of a run and a set of
+ * counters, and writes them as {@link #REPORT_FILENAME} into the output
+ * directory. Phases are identified by name and may be entered more than
+ * once; their times add up. Counters can be updated from any thread.
+ *
+ * The heap delta of a phase is the difference in used heap between its
+ * start and its end, without forcing a garbage collection, so it can be
+ * negative.
+ *
+ * @author schaef
+ */
+public class RunReport {
+
+	public static final String REPORT_FILENAME = "report.json";
+	private static final int VERSION = 1;
+
+	private static RunReport instance;
+
+	public static synchronized RunReport v() {
+		if (instance == null) {
+			instance = new RunReport();
+		}
+		return instance;
+	}
+
+	public static synchronized void resetInstance() {
+		instance = null;
+	}
+
+	private static class Phase {
+		long started = -1;
+		long startHeap;
+		long nanos = 0;
+		long heapDelta = 0;
+	}
+
+	private final long started = System.nanoTime();
+	private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+	private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	public synchronized void startPhase(String name) {
+		Phase phase = phases.get(name);
+		if (phase == null) {
+			phase = new Phase();
+			phases.put(name, phase);
+		}
+		phase.startHeap = usedHeap();
+		phase.started = System.nanoTime();
+	}
+
+	public synchronized void endPhase(String name) {
+		Phase phase = phases.get(name);
+		if (phase == null || phase.started < 0) {
+			throw new IllegalStateException("Phase " + name + " was not started.");
+		}
+		phase.nanos += System.nanoTime() - phase.started;
+		phase.heapDelta += usedHeap() - phase.startHeap;
+		phase.started = -1;
+	}
+
+	public void count(String counter, long delta) {
+		AtomicLong value = counters.get(counter);
+		if (value == null) {
+			AtomicLong old = counters.putIfAbsent(counter, value = new AtomicLong());
+			if (old != null) {
+				value = old;
+			}
+		}
+		value.addAndGet(delta);
+	}
+
+	public long getCount(String counter) {
+		AtomicLong value = counters.get(counter);
+		return value == null ? 0 : value.get();
+	}
+
+	/**
+	 * Writes the report into outputDir.
+	 *
+	 * @param outputDir
+	 * @param input
+	 *            the analyzed input
+	 * @return the report file.
+	 * @throws IOException
+	 */
+	public synchronized File write(File outputDir, String input) throws IOException {
+		List<String> phaseList = new ArrayList<String>();
+		for (Entry<String, Phase> entry : phases.entrySet()) {
+			Phase phase = entry.getValue();
+			phaseList.add("{\"name\": " + quote(entry.getKey()) + ", \"millis\": " + phase.nanos / 1000000
+					+ ", \"heapDeltaBytes\": " + phase.heapDelta + "}");
+		}
+		List<String> counterList = new ArrayList<String>();
+		for (Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+			counterList.add(quote(entry.getKey()) + ": " + entry.getValue().get());
+		}
+		File reportFile = new File(outputDir, REPORT_FILENAME);
+		try (PrintWriter pw = new PrintWriter(reportFile, "utf-8")) {
+			pw.println("{");
+			pw.println("  \"version\": " + VERSION + ",");
+			pw.println("  \"input\": " + quote(input) + ",");
+			pw.println("  \"totalMillis\": " + (System.nanoTime() - started) / 1000000 + ",");
+			pw.println("  \"heapUsedBytes\": " + usedHeap() + ",");
+			pw.println("  \"heapMaxBytes\": " + Runtime.getRuntime().maxMemory() + ",");
+			pw.println("  \"phases\": [");
+			printList(pw, phaseList);
+			pw.println("  ],");
+			pw.println("  \"counters\": {");
+			printList(pw, counterList);
+			pw.println("  }");
+			pw.println("}");
+		}
+		return reportFile;
+	}
+
+	private static void printList(PrintWriter pw, List<String> items) {
+		for (int i = 0; i < items.size(); i++) {
+			pw.println("    " + items.get(i) + (i + 1 < items.size() ? "," : ""));
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String quote(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -6,6 +6,14 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.AfterClass;
 
@@ -156,6 +164,45 @@ public class AbstractTest {
 		}
 	}
 
+	private static final Pattern DOT_NODE = Pattern.compile("\"([^\"]*)\" \\[label=\"([^\"]*)\"");
+	private static final Pattern DOT_EDGE = Pattern.compile("\"([^\"]*)\" -> \"([^\"]*)\"");
+
+	/**
+	 * Reads the dot files listed in the methods.txt of outDir. The node ids
+	 * differ between runs, so each graph is reduced to its sorted node
+	 * labels and its sorted edges between labels.
+	 * 
+	 * @param outDir
+	 * @return map from method signature to the labels and edges of its graph.
+	 */
+	protected Map<String, List<String>> readDotGraphs(File outDir) {
+		Map<String, List<String>> graphs = new TreeMap<String, List<String>>();
+		for (String line : fileToString(new File(outDir, "methods.txt")).split("\n")) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] columns = line.split("\t");
+			String text = fileToString(new File(outDir, columns[1]));
+			Map<String, String> labels = new HashMap<String, String>();
+			List<String> nodes = new ArrayList<String>();
+			Matcher m = DOT_NODE.matcher(text);
+			while (m.find()) {
+				labels.put(m.group(1), m.group(2));
+				nodes.add(m.group(2));
+			}
+			List<String> edges = new ArrayList<String>();
+			m = DOT_EDGE.matcher(text);
+			while (m.find()) {
+				edges.add(labels.get(m.group(1)) + " -> " + labels.get(m.group(2)));
+			}
+			Collections.sort(nodes);
+			Collections.sort(edges);
+			nodes.addAll(edges);
+			graphs.put(columns[0], nodes);
+		}
+		return graphs;
+	}
+
 	@AfterClass
 	public static void tearDown() {
 //		org.joogie.GlobalsCache.resetInstance();
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package api_learner.test.archive_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import api_learner.Options;
+import api_learner.archive.ArchivedGraph;
+import api_learner.archive.DotRenderer;
+import api_learner.archive.GraphArchive;
+import api_learner.archive.GraphArchiveWriter;
+import api_learner.soot.GraphWriter;
+import api_learner.soot.SootToCfg;
+import api_learner.test.AbstractTest;
+
+/**
+ * Writes graphs into an archive and reads them back.
+ *
+ * @author schaef
+ *
+ */
+public class GraphArchiveTest extends AbstractTest {
+
+	private File workDir;
+
+	@Before
+	public void setUp() throws IOException {
+		workDir = getTempDir();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		Options.resetInstance();
+		delete(workDir);
+	}
+
+	/**
+	 * The graphs of the test fixtures in the archive file must have the
+	 * same nodes, labels, and edges as the dot files of the same run.
+	 */
+	@Test
+	public void test_fixtures() throws IOException {
+		List<File> sources = new ArrayList<File>();
+		for (String dir : new String[] { "callgraph_tests", "exception_tests", "mutual_recursive" }) {
+			sources.addAll(Arrays.asList(new File(testRoot + dir).listFiles()));
+		}
+		File classDir = compileJavaFiles(sources.toArray(new File[sources.size()]));
+		if (classDir == null) {
+			Assert.fail();
+		}
+		soot.G.reset();
+		File outDir = new File(workDir, "out");
+		Options.v().setCallGraphAlgorithm("none");
+		Options.v().setNamespace("java");
+		Options.v().setOutFileDirName(outDir.getAbsolutePath());
+		new SootToCfg().run(classDir.getAbsolutePath());
+		delete(classDir);
+
+		Map<String, List<String>> dotGraphs = readDotGraphs(outDir);
+		Assert.assertFalse(dotGraphs.isEmpty());
+		GraphArchive archive = GraphArchive.open(new File(outDir, GraphWriter.ARCHIVE_FILENAME));
+		Assert.assertEquals(dotGraphs.size(), archive.size());
+		List<String> methods = Arrays.asList(fileToString(new File(outDir, DotRenderer.METHOD_TO_DOT_MAPPING_FILENAME))
+				.split("\n"));
+		for (int i = 0; i < archive.size(); i++) {
+			String signature = archive.getSignature(i);
+			Assert.assertEquals(i, archive.find(signature));
+			Assert.assertTrue(methods.contains(signature + "\t" + DotRenderer.dotFilename(archive.getSequence(i))));
+			Assert.assertEquals(signature, dotGraphs.get(signature), labelsAndEdges(archive.getGraph(signature)));
+		}
+	}
+
+	/**
+	 * Random graphs with successor ids and string ids beyond one varint
+	 * byte must come back unchanged.
+	 */
+	@Test
+	public void test_encode() throws IOException {
+		File file = new File(workDir, GraphWriter.ARCHIVE_FILENAME);
+		List<int[]> labels = new ArrayList<int[]>();
+		List<int[][]> successors = new ArrayList<int[][]>();
+		writeRandomGraphs(file, labels, successors);
+		checkRandomGraphs(GraphArchive.open(file), labels, successors);
+	}
+
+	/**
+	 * Same graphs, but mapped in segments that are smaller than the file, so
+	 * records start in one segment and end in the next.
+	 */
+	@Test
+	public void test_segments() throws IOException {
+		File file = new File(workDir, GraphWriter.ARCHIVE_FILENAME);
+		List<int[]> labels = new ArrayList<int[]>();
+		List<int[][]> successors = new ArrayList<int[][]>();
+		writeRandomGraphs(file, labels, successors);
+		final int segmentBytes = 64 << 10;
+		Assert.assertTrue(file.length() > 2 * segmentBytes);
+		checkRandomGraphs(GraphArchive.open(file, segmentBytes), labels, successors);
+	}
+
+	private static void writeRandomGraphs(File file, List<int[]> labels, List<int[][]> successors)
+			throws IOException {
+		Random random = new Random(42);
+		try (GraphArchiveWriter writer = new GraphArchiveWriter(file)) {
+			for (int g = 0; g < 20; g++) {
+				int size = 1 + random.nextInt(g < 10 ? 20 : 2000);
+				int[] graphLabels = new int[size];
+				int[][] graphSuccessors = new int[size][];
+				for (int n = 0; n < size; n++) {
+					graphLabels[n] = writer.intern("label \u00e4 " + random.nextInt(500));
+					graphSuccessors[n] = new int[random.nextInt(4)];
+					for (int i = 0; i < graphSuccessors[n].length; i++) {
+						graphSuccessors[n][i] = random.nextInt(size);
+					}
+					Arrays.sort(graphSuccessors[n]);
+				}
+				labels.add(graphLabels);
+				successors.add(graphSuccessors);
+				writer.append("<m" + g + ">", g, GraphArchiveWriter.encode(graphLabels, graphSuccessors));
+			}
+		}
+	}
+
+	private static void checkRandomGraphs(GraphArchive archive, List<int[]> labels, List<int[][]> successors) {
+		Assert.assertEquals(20, archive.size());
+		Assert.assertNull(archive.getGraph("<missing>"));
+		for (int g = 0; g < 20; g++) {
+			ArchivedGraph graph = archive.getGraph("<m" + g + ">");
+			Assert.assertEquals(g, archive.getSequence(archive.find("<m" + g + ">")));
+			Assert.assertEquals(labels.get(g).length, graph.getNodeCount());
+			for (int n = 0; n < graph.getNodeCount(); n++) {
+				Assert.assertEquals(archive.getString(labels.get(g)[n]), graph.getLabel(n));
+				Assert.assertArrayEquals(successors.get(g)[n], graph.getSuccessors(n));
+				Assert.assertEquals(successors.get(g)[n].length, graph.getSuccessorCount(n));
+			}
+		}
+	}
+
+	/**
+	 * Same reduction as {@link AbstractTest#readDotGraphs}, for the nodes
+	 * that are reachable from the source like in {@link DotRenderer}.
+	 */
+	private static List<String> labelsAndEdges(ArchivedGraph graph) {
+		List<Integer> reached = new ArrayList<Integer>();
+		boolean[] seen = new boolean[graph.getNodeCount()];
+		reached.add(graph.getSource());
+		seen[graph.getSource()] = true;
+		List<String> nodes = new ArrayList<String>();
+		List<String> edges = new ArrayList<String>();
+		for (int i = 0; i < reached.size(); i++) {
+			int n = reached.get(i);
+			nodes.add(graph.getLabel(n));
+			for (int suc : graph.getSuccessors(n)) {
+				edges.add(graph.getLabel(n) + " -> " + graph.getLabel(suc));
+				if (!seen[suc]) {
+					seen[suc] = true;
+					reached.add(suc);
+				}
+			}
+		}
+		Collections.sort(nodes);
+		Collections.sort(edges);
+		nodes.addAll(edges);
+		return nodes;
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package api_learner.test.callgraph_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import api_learner.Options;
+import api_learner.soot.SootToCfg;
+import api_learner.test.AbstractTest;
+import api_learner.util.RunReport;
+
+/**
+ * Checks that calls beyond -max-nodes are replaced by summary nodes that
+ * are wired to the exceptional sinks.
+ *
+ * @author schaef
+ *
+ */
+public class BudgetTest extends AbstractTest {
+
+	private static final Pattern NODE = Pattern.compile("\"([^\"]*)\" \\[label=\"([^\"]*)\"");
+	private static final Pattern EDGE = Pattern.compile("\"([^\"]*)\" -> \"([^\"]*)\"");
+
+	private File outDir;
+
+	@After
+	public void cleanUp() throws IOException {
+		Options.resetInstance();
+		if (outDir != null) {
+			delete(outDir);
+		}
+	}
+
+	@Test
+	public void test_no_limit() throws IOException {
+		Assert.assertEquals(0, Options.v().getMaxNodes());
+		Assert.assertEquals(0, Options.v().getMaxEdges());
+		run(0);
+		Assert.assertEquals(0, RunReport.v().getCount("inline.budget-hits"));
+		Assert.assertEquals(0, summaryEdgesToExceptions());
+	}
+
+	@Test
+	public void test_max_nodes() throws IOException {
+		run(10);
+		Assert.assertTrue(RunReport.v().getCount("inline.budget-hits") > 0);
+		Assert.assertTrue(summaryEdgesToExceptions() > 0);
+	}
+
+	private void run(int maxNodes) throws IOException {
+		soot.G.reset();
+		File classDir = compileJavaFile(new File(testRoot + "exception_tests/DeclaredExceptionTest.java"));
+		if (classDir == null) {
+			Assert.fail();
+		}
+		outDir = getTempDir();
+		Options.v().setCallGraphAlgorithm("none");
+		Options.v().setOutFileDirName(outDir.getAbsolutePath());
+		Options.v().setMaxNodes(maxNodes);
+		new SootToCfg().run(classDir.getAbsolutePath());
+		delete(classDir);
+	}
+
+	/**
+	 * @return the number of edges from a summary node to an exceptional
+	 *         sink in all dot files of outDir.
+	 */
+	private int summaryEdgesToExceptions() {
+		int res = 0;
+		for (File dot : outDir.listFiles()) {
+			if (!dot.getName().endsWith(".dot")) {
+				continue;
+			}
+			String text = fileToString(dot);
+			Map<String, String> labels = new HashMap<String, String>();
+			Matcher m = NODE.matcher(text);
+			while (m.find()) {
+				labels.put(m.group(1), m.group(2));
+			}
+			m = EDGE.matcher(text);
+			while (m.find()) {
+				String from = labels.get(m.group(1));
+				String to = labels.get(m.group(2));
+				if (from != null && from.startsWith("Summary of ") && to != null && to.startsWith("Exception ")) {
+					res++;
+				}
+			}
+		}
+		return res;
+	}
+}
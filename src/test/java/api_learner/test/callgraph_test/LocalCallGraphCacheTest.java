@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package api_learner.test.callgraph_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import soot.Scene;
+import soot.SootClass;
+import api_learner.Options;
+import api_learner.soot.LocalCallGraphCache;
+import api_learner.soot.SootToCfg;
+import api_learner.test.AbstractTest;
+import api_learner.util.RunReport;
+
+/**
+ * Runs the same input with and without -cache and checks that the cached
+ * local graphs never change the output.
+ *
+ * @author schaef
+ *
+ */
+public class LocalCallGraphCacheTest extends AbstractTest {
+
+	private static final String SHAPE = "public interface Shape { int area(); }";
+	private static final String SQUARE = "public class Square implements Shape { public int area() { %s return 4; } }";
+	private static final String CIRCLE = "public class Circle implements Shape { public int area() { new java.io.File(\"c\").delete(); return 3; } }";
+	private static final String CLIENT = "public class Client {\n"
+			+ "	public int use(Shape s) { return s.area(); }\n"
+			+ "	public static void main(String[] args) throws java.io.IOException {\n"
+			+ "		new java.io.FileReader(args[0]).close();\n"
+			+ "		System.out.println(new Client().use(new Square()));\n"
+			+ "	}\n"
+			+ "}";
+	private static final String SPARK_CLIENT = "public class Client { public int use(Shape s) { return s.area(); } }";
+	private static final String SPARK_MAIN = "public class Main {\n"
+			+ "	public static void main(String[] args) { System.out.println(new Client().use(new %s())); }\n"
+			+ "}";
+
+	private File workDir;
+	private File cacheDir;
+	private File sourceDir;
+
+	@Before
+	public void setUp() throws IOException {
+		workDir = getTempDir();
+		cacheDir = new File(workDir, "cache");
+		sourceDir = new File(workDir, "src");
+		Assert.assertTrue(sourceDir.mkdir());
+		writeSource("Shape", SHAPE);
+		writeSource("Square", String.format(SQUARE, "System.out.println(\"square\");"));
+		writeSource("Client", CLIENT);
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		Options.resetInstance();
+		delete(workDir);
+	}
+
+	@Test
+	public void test_cold_warm_changed_body() throws IOException {
+		File classDir = compile();
+		Map<String, List<String>> cold = run(classDir, cacheDir);
+		Assert.assertEquals(0, RunReport.v().getCount("methods.restored"));
+
+		Map<String, List<String>> warm = run(classDir, cacheDir);
+		Assert.assertEquals(0, RunReport.v().getCount("methods.analyzed"));
+		Assert.assertTrue(RunReport.v().getCount("methods.restored") > 0);
+		Assert.assertEquals(cold, warm);
+
+		// only the body of Square changes, so Client is still restored.
+		writeSource("Square", String.format(SQUARE, "new java.io.File(\"s\").exists();"));
+		classDir = compile();
+		Map<String, List<String>> expected = run(classDir, null);
+		Assert.assertNotEquals(cold, expected);
+		Map<String, List<String>> changed = run(classDir, cacheDir);
+		Assert.assertEquals(2, RunReport.v().getCount("methods.analyzed"));
+		Assert.assertTrue(RunReport.v().getCount("methods.restored") > 0);
+		Assert.assertEquals(expected, changed);
+	}
+
+	@Test
+	public void test_new_subclass() throws IOException {
+		run(compile(), cacheDir);
+
+		// Client calls Shape.area, so it has to dispatch to Circle as well.
+		writeSource("Circle", CIRCLE);
+		File classDir = compile();
+		Map<String, List<String>> expected = run(classDir, null);
+		Map<String, List<String>> cached = run(classDir, cacheDir);
+		Assert.assertEquals(expected, cached);
+		Assert.assertTrue(RunReport.v().getCount("methods.analyzed") >= 5);
+		Assert.assertTrue(cached.toString().contains("<java.io.File: boolean delete()>"));
+	}
+
+	@Test
+	public void test_changed_options() throws IOException {
+		File classDir = compile();
+		run(classDir, cacheDir);
+		// the Scene of the last run is still loaded.
+		Assert.assertTrue(restoresAny(classDir));
+		Options.v().setNamespace("java.io");
+		Assert.assertFalse(restoresAny(classDir));
+
+		run(classDir, cacheDir);
+		Assert.assertTrue(restoresAny(classDir));
+		Options.v().setCallGraphAlgorithm("cha");
+		Assert.assertFalse(restoresAny(classDir));
+
+		run(classDir, cacheDir);
+		Assert.assertTrue(restoresAny(classDir));
+		Options.v().setClasspath(workDir.getAbsolutePath());
+		Assert.assertFalse(restoresAny(classDir));
+	}
+
+	/**
+	 * With a call graph of Soot, the targets in Client depend on what Main
+	 * passes to it, so changing only the body of Main must not restore the
+	 * cached graph of Client.
+	 */
+	@Test
+	public void test_spark() throws IOException {
+		writeSource("Circle", CIRCLE);
+		writeSource("Client", SPARK_CLIENT);
+		writeSource("Main", String.format(SPARK_MAIN, "Square"));
+		Map<String, List<String>> cold = run(compile(), cacheDir, "spark");
+		Assert.assertTrue(RunReport.v().getCount("call-sites.from-cg") > 0);
+
+		writeSource("Main", String.format(SPARK_MAIN, "Circle"));
+		File classDir = compile();
+		Map<String, List<String>> expected = run(classDir, null, "spark");
+		Assert.assertNotEquals(cold, expected);
+		Map<String, List<String>> cached = run(classDir, cacheDir, "spark");
+		Assert.assertEquals(expected, cached);
+	}
+
+	/**
+	 * Loads the cache with the current options.
+	 *
+	 * @return true if the graphs of any application class can be restored.
+	 */
+	private boolean restoresAny(File classDir) {
+		LocalCallGraphCache cache = new LocalCallGraphCache(cacheDir, classDir.getAbsolutePath());
+		cache.load();
+		for (SootClass sc : Scene.v().getApplicationClasses()) {
+			if (cache.restore(sc) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeSource(String className, String text) throws IOException {
+		try (PrintWriter pw = new PrintWriter(new File(sourceDir, className + ".java"), "utf-8")) {
+			pw.println(text);
+		}
+	}
+
+	private File compile() throws IOException {
+		File classDir = compileJavaFiles(sourceDir.listFiles());
+		if (classDir == null) {
+			Assert.fail();
+		}
+		return classDir;
+	}
+
+	/**
+	 * Runs the analysis on classDir, with the cache in cacheDir unless it
+	 * is null.
+	 */
+	private Map<String, List<String>> run(File classDir, File cacheDir) throws IOException {
+		return run(classDir, cacheDir, "none");
+	}
+
+	private Map<String, List<String>> run(File classDir, File cacheDir, String cg) throws IOException {
+		soot.G.reset();
+		File outDir = new File(workDir, "out");
+		if (outDir.exists()) {
+			delete(outDir);
+		}
+		Options.v().setCallGraphAlgorithm(cg);
+		Options.v().setNamespace("java");
+		Options.v().setOutFileDirName(outDir.getAbsolutePath());
+		Options.v().setClasspath(null);
+		Options.v().setCacheDir(cacheDir == null ? null : cacheDir.getAbsolutePath());
+		new SootToCfg().run(classDir.getAbsolutePath());
+		return readDotGraphs(outDir);
+	}
+}
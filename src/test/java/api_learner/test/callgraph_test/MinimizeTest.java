@@ -0,0 +1,277 @@
+/**
+ *
+ */
+package api_learner.test.callgraph_test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import api_learner.Options;
+import api_learner.soot.CompactCallGraph;
+import api_learner.soot.SootToCfg;
+import api_learner.test.AbstractTest;
+
+/**
+ * Checks that -minimize keeps the label sequences of all paths from the
+ * source to a sink of each graph.
+ *
+ * @author schaef
+ *
+ */
+public class MinimizeTest extends AbstractTest {
+
+	private static final Pattern NODE = Pattern.compile("\"([^\"]*)\" \\[label=\"([^\"]*)\"");
+	private static final Pattern EDGE = Pattern.compile("\"([^\"]*)\" -> \"([^\"]*)\"");
+
+	private final List<File> tempDirs = new ArrayList<File>();
+
+	/**
+	 * A graph with a label per node, read back from a dot file or copied
+	 * from a {@link CompactCallGraph}.
+	 */
+	private static class LabeledGraph {
+		final List<String> labels = new ArrayList<String>();
+		final List<List<Integer>> successors = new ArrayList<List<Integer>>();
+		int source = -1;
+
+		int addNode(String label) {
+			labels.add(label);
+			successors.add(new ArrayList<Integer>());
+			return labels.size() - 1;
+		}
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		Options.resetInstance();
+		for (File dir : tempDirs) {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void test_duplicate_branches() throws IOException {
+		File classDir = compileJavaFile(new File(testRoot + "minimize_tests/DuplicateBranches.java"));
+		if (classDir == null) {
+			Assert.fail();
+		}
+		tempDirs.add(classDir);
+		Map<String, LabeledGraph> graphs = run(classDir, false);
+		Map<String, LabeledGraph> minimized = run(classDir, true);
+		Assert.assertEquals(graphs.keySet(), minimized.keySet());
+		int merged = 0;
+		for (String signature : graphs.keySet()) {
+			LabeledGraph g = graphs.get(signature);
+			LabeledGraph m = minimized.get(signature);
+			Assert.assertTrue(signature, sameLanguage(g, m));
+			Assert.assertTrue(signature, m.labels.size() <= g.labels.size());
+			merged += g.labels.size() - m.labels.size();
+		}
+		// otherwise the test would not show anything.
+		Assert.assertTrue(merged > 0);
+	}
+
+	/**
+	 * Two copies of a chain of nodes with the same label. Nodes at a
+	 * different distance to the sink are not bisimilar, so only the copies
+	 * are merged.
+	 */
+	@Test
+	public void test_deep_chains() {
+		final int length = 5000;
+		CompactCallGraph g = new CompactCallGraph();
+		int source = g.addNode(0);
+		int sink = g.addNode(2);
+		for (int copy = 0; copy < 2; copy++) {
+			int prev = source;
+			for (int i = 0; i < length; i++) {
+				int n = g.addNode(1);
+				g.connect(prev, n);
+				prev = n;
+			}
+			g.connect(prev, sink);
+		}
+		int[] remap = new int[g.size()];
+		CompactCallGraph m = g.minimize(source, remap);
+		Assert.assertEquals(length + 2, m.size());
+		Assert.assertEquals(0, remap[source]);
+		Assert.assertEquals(remap[2], remap[2 + length]);
+		Assert.assertTrue(sameLanguage(copy(g, source), copy(m, 0)));
+		// a shortcut to the sink adds a shorter sequence.
+		LabeledGraph shortcut = copy(m, 0);
+		shortcut.successors.get(remap[2]).add(remap[sink]);
+		Assert.assertFalse(sameLanguage(copy(g, source), shortcut));
+	}
+
+	private Map<String, LabeledGraph> run(File classDir, boolean minimize) throws IOException {
+		soot.G.reset();
+		File outDir = getTempDir();
+		tempDirs.add(outDir);
+		Options.v().setCallGraphAlgorithm("none");
+		Options.v().setNamespace("java");
+		Options.v().setOutFileDirName(outDir.getAbsolutePath());
+		Options.v().setMinimize(minimize);
+		new SootToCfg().run(classDir.getAbsolutePath());
+		Map<String, LabeledGraph> graphs = new HashMap<String, LabeledGraph>();
+		for (String line : fileToString(new File(outDir, "methods.txt")).split("\n")) {
+			if (!line.isEmpty()) {
+				String[] columns = line.split("\t");
+				graphs.put(columns[0], readDot(new File(outDir, columns[1])));
+			}
+		}
+		return graphs;
+	}
+
+	private LabeledGraph readDot(File dot) {
+		String text = fileToString(dot);
+		LabeledGraph g = new LabeledGraph();
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		Matcher m = NODE.matcher(text);
+		while (m.find()) {
+			ids.put(m.group(1), g.addNode(m.group(2)));
+			if ("source".equals(m.group(2))) {
+				g.source = ids.get(m.group(1));
+			}
+		}
+		m = EDGE.matcher(text);
+		while (m.find()) {
+			g.successors.get(ids.get(m.group(1))).add(ids.get(m.group(2)));
+		}
+		Assert.assertTrue(g.source >= 0);
+		return g;
+	}
+
+	private static LabeledGraph copy(CompactCallGraph cg, int source) {
+		LabeledGraph g = new LabeledGraph();
+		for (int n = 0; n < cg.size(); n++) {
+			g.addNode(String.valueOf(cg.getLabel(n)));
+		}
+		for (int n = 0; n < cg.size(); n++) {
+			for (int suc : cg.getSuccessors(n)) {
+				g.successors.get(n).add(suc);
+			}
+		}
+		g.source = source;
+		return g;
+	}
+
+	/**
+	 * Compares the sets of label sequences of all paths from the source to
+	 * a node without successors by running the subset construction of both
+	 * graphs in parallel.
+	 */
+	private static boolean sameLanguage(LabeledGraph a, LabeledGraph b) {
+		if (!a.labels.get(a.source).equals(b.labels.get(b.source))) {
+			return false;
+		}
+		Set<Integer> liveA = live(a);
+		Set<Integer> liveB = live(b);
+		Set<String> done = new HashSet<String>();
+		LinkedList<List<TreeSet<Integer>>> worklist = new LinkedList<List<TreeSet<Integer>>>();
+		worklist.add(pair(start(a, liveA), start(b, liveB)));
+		while (!worklist.isEmpty()) {
+			List<TreeSet<Integer>> states = worklist.removeFirst();
+			if (!done.add(states.toString())) {
+				continue;
+			}
+			TreeSet<Integer> statesA = states.get(0);
+			TreeSet<Integer> statesB = states.get(1);
+			if (statesA.isEmpty() != statesB.isEmpty() || accepts(a, statesA) != accepts(b, statesB)) {
+				return false;
+			}
+			Map<String, TreeSet<Integer>> nextA = next(a, statesA, liveA);
+			Map<String, TreeSet<Integer>> nextB = next(b, statesB, liveB);
+			if (!nextA.keySet().equals(nextB.keySet())) {
+				return false;
+			}
+			for (String label : nextA.keySet()) {
+				worklist.add(pair(nextA.get(label), nextB.get(label)));
+			}
+		}
+		return true;
+	}
+
+	private static TreeSet<Integer> start(LabeledGraph g, Set<Integer> live) {
+		TreeSet<Integer> res = new TreeSet<Integer>();
+		if (live.contains(g.source)) {
+			res.add(g.source);
+		}
+		return res;
+	}
+
+	private static List<TreeSet<Integer>> pair(TreeSet<Integer> a, TreeSet<Integer> b) {
+		List<TreeSet<Integer>> res = new ArrayList<TreeSet<Integer>>();
+		res.add(a);
+		res.add(b);
+		return res;
+	}
+
+	private static boolean accepts(LabeledGraph g, Set<Integer> states) {
+		for (int n : states) {
+			if (g.successors.get(n).isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Map<String, TreeSet<Integer>> next(LabeledGraph g, Set<Integer> states, Set<Integer> live) {
+		Map<String, TreeSet<Integer>> res = new HashMap<String, TreeSet<Integer>>();
+		for (int n : states) {
+			for (int suc : g.successors.get(n)) {
+				if (!live.contains(suc)) {
+					continue;
+				}
+				TreeSet<Integer> set = res.get(g.labels.get(suc));
+				if (set == null) {
+					set = new TreeSet<Integer>();
+					res.put(g.labels.get(suc), set);
+				}
+				set.add(suc);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the nodes from which a node without successors is reachable.
+	 */
+	private static Set<Integer> live(LabeledGraph g) {
+		List<List<Integer>> predecessors = new ArrayList<List<Integer>>();
+		LinkedList<Integer> worklist = new LinkedList<Integer>();
+		for (int n = 0; n < g.labels.size(); n++) {
+			predecessors.add(new ArrayList<Integer>());
+		}
+		for (int n = 0; n < g.labels.size(); n++) {
+			for (int suc : g.successors.get(n)) {
+				predecessors.get(suc).add(n);
+			}
+			if (g.successors.get(n).isEmpty()) {
+				worklist.add(n);
+			}
+		}
+		Set<Integer> live = new HashSet<Integer>(worklist);
+		while (!worklist.isEmpty()) {
+			for (int pre : predecessors.get(worklist.removeFirst())) {
+				if (live.add(pre)) {
+					worklist.add(pre);
+				}
+			}
+		}
+		return live;
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package api_learner.test.soot_test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import api_learner.soot.JarIndex;
+import api_learner.test.AbstractTest;
+
+/**
+ * Compares {@link JarIndex} with what {@link JarFile} reads from the same
+ * jars.
+ *
+ * @author schaef
+ *
+ */
+public class JarIndexTest extends AbstractTest {
+
+	private File tempDir;
+	private File mainJar;
+
+	@Before
+	public void setUp() throws IOException {
+		JarIndex.resetInstance();
+		tempDir = getTempDir();
+		File lib = new File(tempDir, "lib");
+		Assert.assertTrue(lib.mkdir());
+		mainJar = new File(tempDir, "main.jar");
+		// dep.jar points back to main.jar to check that cycles terminate.
+		writeJar(new File(lib, "dep.jar"), "../main.jar other.jar", "b/B.class", "b/B$Inner.class",
+				"b/data.txt");
+		writeJar(new File(lib, "other.jar"), null, "c/C.class");
+		writeJar(mainJar, "lib/dep.jar missing.jar notes.txt", "a/A.class", "a/b/C.class", "a/resource.txt",
+				"a/");
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		JarIndex.resetInstance();
+		delete(tempDir);
+	}
+
+	@Test
+	public void test_classes() throws IOException {
+		Assert.assertEquals(classesOf(mainJar), JarIndex.v().getClasses(mainJar));
+		File dep = new File(tempDir, "lib/dep.jar");
+		Assert.assertEquals(classesOf(dep), JarIndex.v().getClasses(dep));
+	}
+
+	@Test
+	public void test_class_path() throws IOException {
+		List<File> expected = classPathOf(mainJar);
+		Assert.assertEquals(3, expected.size());
+		Assert.assertEquals(expected, JarIndex.v().getClassPath(mainJar));
+	}
+
+	@Test
+	public void test_index_file() throws IOException {
+		File indexFile = new File(new File(tempDir, "cache"), JarIndex.INDEX_FILENAME);
+		JarIndex.v().setIndexFile(indexFile);
+		JarIndex.v().getClassPath(mainJar);
+		JarIndex.v().getClasses(mainJar);
+		JarIndex.v().save();
+		Assert.assertTrue(indexFile.isFile());
+
+		// a new vm that reads the stored entries.
+		JarIndex.resetInstance();
+		JarIndex.v().setIndexFile(indexFile);
+		Assert.assertEquals(classesOf(mainJar), JarIndex.v().getClasses(mainJar));
+		Assert.assertEquals(classPathOf(mainJar), JarIndex.v().getClassPath(mainJar));
+
+		// a stored entry must not hide changes of the jar.
+		writeJar(mainJar, "lib/other.jar", "a/A.class", "a/D.class");
+		JarIndex.resetInstance();
+		JarIndex.v().setIndexFile(indexFile);
+		Assert.assertEquals(classesOf(mainJar), JarIndex.v().getClasses(mainJar));
+		Assert.assertEquals(classPathOf(mainJar), JarIndex.v().getClassPath(mainJar));
+	}
+
+	private static void writeJar(File jar, String classPath, String... entries) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if (classPath != null) {
+			manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+		}
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+			boolean stored = false;
+			for (String name : entries) {
+				byte[] data = name.endsWith("/") ? new byte[0] : name.getBytes("utf-8");
+				JarEntry entry = new JarEntry(name);
+				// mix stored and deflated entries.
+				if (stored) {
+					CRC32 crc = new CRC32();
+					crc.update(data);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(data.length);
+					entry.setCrc(crc.getValue());
+				}
+				stored = !stored;
+				out.putNextEntry(entry);
+				out.write(data);
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static List<String> classesOf(File jar) throws IOException {
+		List<String> res = new ArrayList<String>();
+		try (JarFile jarFile = new JarFile(jar)) {
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				if (name.endsWith(".class")) {
+					res.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+				}
+			}
+		}
+		return res;
+	}
+
+	private static List<File> classPathOf(File jar) throws IOException {
+		List<File> res = new ArrayList<File>();
+		Set<File> done = new HashSet<File>();
+		done.add(jar.getCanonicalFile());
+		List<File> worklist = new LinkedList<File>();
+		worklist.add(jar);
+		while (!worklist.isEmpty()) {
+			File current = worklist.remove(0);
+			try (JarFile jarFile = new JarFile(current)) {
+				Manifest manifest = jarFile.getManifest();
+				String classPath = manifest == null ? null : manifest.getMainAttributes().getValue(
+						Attributes.Name.CLASS_PATH);
+				if (classPath == null) {
+					continue;
+				}
+				for (String item : classPath.split(" ")) {
+					File dependency = new File(current.getParent(), item);
+					if (item.endsWith(".jar") && done.add(dependency.getCanonicalFile())) {
+						res.add(dependency);
+						if (dependency.isFile()) {
+							worklist.add(dependency);
+						}
+					}
+				}
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * 
+ */
+package minimize_tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * @author schaef
+ *
+ */
+public class DuplicateBranches {
+
+	public void branches(int x) {
+		/*
+		 * All three branches make the same calls, so -minimize can merge
+		 * them into one.
+		 */
+		if (x > 0) {
+			new File("a").delete();
+			System.out.println("done");
+		} else if (x < 0) {
+			new File("b").delete();
+			System.out.println("done");
+		} else {
+			new File("c").delete();
+			System.out.println("done");
+		}
+	}
+
+	public void loops(Reader r) throws IOException {
+		while (r.read() > 0) {
+			if (r.ready()) {
+				r.skip(1);
+			} else {
+				r.skip(2);
+			}
+		}
+		r.close();
+	}
+
+	public static void main(String[] args) {
+		DuplicateBranches d = new DuplicateBranches();
+		d.branches(args.length);
+		try {
+			d.loops(new StringReader(args[0]));
+		} catch (IOException e) {
+			d.branches(-1);
+		}
+	}
+
+}